@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks the latency of single buffer operations while producers and consumers run against each other -
+ * The non-blocking attempts are measured so neither side can be left waiting forever when an iteration ends.
+ * The producer/consumer split defaults to 1:1 and can be changed with JMH's -tg option, e.g. -tg 4,2, except for the
+ * spsc engine, which only allows one of each. Other capacities can be given with JMH's -p option,
+ * e.g. -p capacity=1,1024
+ * @author Alex Harlock
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferLatencyBenchmark {
+
+    @Param({"list", "ring", "spsc"})
+    public String engine;
+
+    @Param({"16"})
+    public int capacity;
+
+    private Object buffer; // Buffer shared by the producers and consumers of one group
+
+    @Setup(Level.Iteration)
+    public void createBuffer() throws Throwable {
+        buffer = Engines.create(engine, capacity);
+    }
+
+    @Benchmark
+    @Group("addRemove")
+    @GroupThreads(1)
+    public boolean add() throws Throwable {
+        return Engines.attemptAdd(buffer, 1);
+    }
+
+    @Benchmark
+    @Group("addRemove")
+    @GroupThreads(1)
+    public boolean remove() throws Throwable {
+        return Engines.attemptRemove(buffer);
+    }
+}
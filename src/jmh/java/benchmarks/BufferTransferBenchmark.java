@@ -0,0 +1,158 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks moving a fixed number of elements from producers to consumers through a buffer -
+ * Each invocation is one complete run, like ListCount's, without any console output. The "elements" counter reports
+ * the element throughput, and the SampleTime mode gives percentiles of the run time. The default parameters are a smoke
+ * matrix of about a minute - sweep others with JMH's -p option, e.g. -p capacity=1,16,1024 -p producers=1,4
+ * @author Alex Harlock
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class BufferTransferBenchmark {
+
+    @Param({"list", "ring"})
+    public String engine;
+
+    @Param({"16"})
+    public int capacity;
+
+    @Param({"4"})
+    public int producers;
+
+    @Param({"4"})
+    public int consumers;
+
+    @Param({"100000"})
+    public int elements;
+
+    @Param({"1", "16"})
+    public int batch;
+
+    private ExecutorService threads; // Producer and consumer threads, reused across invocations
+    private Object buffer;           // Buffer for the current invocation
+
+    /**
+     * Counts the elements moved, reported by JMH as a rate alongside the run rate
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Transferred {
+        public long elements;
+    }
+
+    @Setup(Level.Trial)
+    public void startThreads() {
+        threads = Executors.newFixedThreadPool(producers + consumers);
+    }
+
+    @Setup(Level.Invocation)
+    public void createBuffer() throws Throwable {
+        buffer = Engines.create(engine, capacity);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopThreads() {
+        threads.shutdownNow();
+    }
+
+    @Benchmark
+    public void transfer(Transferred transferred) throws Exception {
+        List<Future<?>> running = new ArrayList<>(producers + consumers);
+        for (int i = 0; i < consumers; i++) {
+            int quota = share(elements, consumers, i);
+            running.add(threads.submit(() -> consume(quota)));
+        }
+        for (int i = 0; i < producers; i++) {
+            int quota = share(elements, producers, i);
+            running.add(threads.submit(() -> produce(quota)));
+        }
+        for (Future<?> task : running) {
+            task.get();
+        }
+        transferred.elements += elements;
+    }
+
+    /**
+     * Adds quota elements to the buffer in batches, waiting for space when the buffer is full
+     * @param quota The number of elements to add
+     */
+    private Void produce(int quota) throws Exception {
+        try {
+            int[] src = new int[batch];
+            int added = 0;
+            while (added < quota) {
+                int len = Math.min(batch, quota - added);
+                int count = (len > 1) ? Engines.addBatch(buffer, src, 0, len) : 0;
+                if (count == 0) {
+                    Engines.put(buffer, added);
+                    count = 1;
+                }
+                added += count;
+            }
+            return null;
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception(t);
+        }
+    }
+
+    /**
+     * Removes quota elements from the buffer in batches, waiting for an element when the buffer is empty
+     * @param quota The number of elements to remove
+     */
+    private Void consume(int quota) throws Exception {
+        try {
+            int[] dst = new int[batch];
+            int removed = 0;
+            while (removed < quota) {
+                int max = Math.min(batch, quota - removed);
+                int count = (max > 1) ? Engines.drainTo(buffer, dst, max) : 0;
+                if (count == 0) {
+                    dst[0] = Engines.take(buffer);
+                    count = 1;
+                }
+                removed += count;
+            }
+            return null;
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception(t);
+        }
+    }
+
+    /**
+     * Splits total evenly over parts, giving the remainder to the first parts
+     */
+    private static int share(int total, int parts, int index) {
+        return total / parts + ((index < total % parts) ? 1 : 0);
+    }
+}
@@ -0,0 +1,171 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * This class gives the benchmarks access to the buffer classes -
+ * JMH will not generate code for benchmarks in the default package, and Java will not let a named package import
+ * classes from the default package, so the buffers are reached through method handles. The handles are static final,
+ * so the JIT inlines them like a direct call
+ * @author Alex Harlock
+ */
+final class Engines {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+    private static final Class<?> ENGINE = load("BufferEngine");
+    private static final Class<?> ENGINE_TYPE = load("BufferEngineType");
+    private static final Class<?> SEMAPHORE = load("MySemaphore");
+
+    private static final MethodHandle PUT = engineMethod("put", void.class, int.class);
+    private static final MethodHandle TAKE = engineMethod("take", int.class);
+    private static final MethodHandle ATTEMPT_ADD = engineMethod("attemptAdd", boolean.class, int.class);
+    private static final MethodHandle ATTEMPT_REMOVE = engineMethod("attemptRemove", boolean.class);
+    private static final MethodHandle ADD_BATCH = engineMethod("addBatch", int.class, int[].class, int.class, int.class);
+    private static final MethodHandle DRAIN_TO = engineMethod("drainTo", int.class, int[].class, int.class);
+    private static final MethodHandle NEW_ENGINE = engineFactory();
+    private static final MethodHandle NEW_SEMAPHORE = semaphoreConstructor();
+    private static final MethodHandle ACQUIRE = semaphoreMethod("acquire");
+    private static final MethodHandle RELEASE = semaphoreMethod("release");
+
+    private Engines() {
+    }
+
+    /**
+     * Creates a buffer
+     * @param engine The buffer engine name, as accepted by -Dcw.engine
+     * @param capacity The maximum capacity of the buffer
+     * @return The new buffer
+     */
+    static Object create(String engine, int capacity) throws Throwable {
+        return (Object) NEW_ENGINE.invokeExact(engine, capacity);
+    }
+
+    /**
+     * Adds an element, waiting for space
+     */
+    static void put(Object buffer, int element) throws Throwable {
+        PUT.invokeExact(buffer, element);
+    }
+
+    /**
+     * Removes an element, waiting for one to arrive
+     */
+    static int take(Object buffer) throws Throwable {
+        return (int) TAKE.invokeExact(buffer);
+    }
+
+    /**
+     * Attempts to add an element without waiting
+     */
+    static boolean attemptAdd(Object buffer, int element) throws Throwable {
+        return (boolean) ATTEMPT_ADD.invokeExact(buffer, element);
+    }
+
+    /**
+     * Attempts to remove an element without waiting
+     */
+    static boolean attemptRemove(Object buffer) throws Throwable {
+        return (boolean) ATTEMPT_REMOVE.invokeExact(buffer);
+    }
+
+    /**
+     * Adds as many elements as fit without waiting
+     */
+    static int addBatch(Object buffer, int[] src, int off, int len) throws Throwable {
+        return (int) ADD_BATCH.invokeExact(buffer, src, off, len);
+    }
+
+    /**
+     * Removes up to max elements without waiting
+     */
+    static int drainTo(Object buffer, int[] dst, int max) throws Throwable {
+        return (int) DRAIN_TO.invokeExact(buffer, dst, max);
+    }
+
+    /**
+     * Creates a MySemaphore
+     * @param bound The number of permits initially available
+     * @param fair True if permits should be handed out in FIFO order
+     * @return The new semaphore
+     */
+    static Object semaphore(int bound, boolean fair) throws Throwable {
+        return (Object) NEW_SEMAPHORE.invokeExact(bound, fair);
+    }
+
+    /**
+     * Acquires a permit
+     */
+    static void acquire(Object semaphore) throws Throwable {
+        ACQUIRE.invokeExact(semaphore);
+    }
+
+    /**
+     * Releases a permit
+     */
+    static void release(Object semaphore) throws Throwable {
+        RELEASE.invokeExact(semaphore);
+    }
+
+    /**
+     * Loads a class from the default package
+     */
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Finds a BufferEngine method, typed to take the buffer as an Object
+     */
+    private static MethodHandle engineMethod(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(ENGINE, name, MethodType.methodType(returnType, parameterTypes));
+            return handle.asType(handle.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Finds a no-argument MySemaphore method, typed to take the semaphore as an Object
+     */
+    private static MethodHandle semaphoreMethod(String name) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(SEMAPHORE, name, MethodType.methodType(void.class));
+            return handle.asType(MethodType.methodType(void.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Builds (String name, int capacity) -> BufferEngineType.fromName(name).create(capacity)
+     */
+    private static MethodHandle engineFactory() {
+        try {
+            MethodHandle fromName = LOOKUP.findStatic(ENGINE_TYPE, "fromName", MethodType.methodType(ENGINE_TYPE, String.class));
+            MethodHandle create = LOOKUP.findVirtual(ENGINE_TYPE, "create", MethodType.methodType(ENGINE, int.class));
+            MethodHandle factory = MethodHandles.filterArguments(create, 0, fromName);
+            return factory.asType(MethodType.methodType(Object.class, String.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Finds the MySemaphore(int, boolean) constructor, typed to return an Object
+     */
+    private static MethodHandle semaphoreConstructor() {
+        try {
+            MethodHandle constructor = LOOKUP.findConstructor(SEMAPHORE, MethodType.methodType(void.class, int.class, boolean.class));
+            return constructor.asType(MethodType.methodType(Object.class, int.class, boolean.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
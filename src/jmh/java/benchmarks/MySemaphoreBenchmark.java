@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks an acquire/release pair on MySemaphore, uncontended and with every thread competing
+ * for the same permits. Thread counts other than 1 and 4 can be given with JMH's -t option
+ * @author Alex Harlock
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MySemaphoreBenchmark {
+
+    @Param({"1", "4"})
+    public int permits;
+
+    @Param({"false", "true"})
+    public boolean fair;
+
+    private Object semaphore; // Semaphore shared by every benchmark thread
+
+    @Setup
+    public void createSemaphore() throws Throwable {
+        semaphore = Engines.semaphore(permits, fair);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uncontended() throws Throwable {
+        Engines.acquire(semaphore);
+        Engines.release(semaphore);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended() throws Throwable {
+        Engines.acquire(semaphore);
+        Engines.release(semaphore);
+    }
+}
@@ -0,0 +1,368 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This abstract class represents a buffer whose subclasses only say how to add and remove elements without waiting -
+ * It supplies everything built on top of that: waiting for space or an element on a WaitQueue, batches, closing, the
+ * full/empty status and the summary, so the ring-based engines behave identically whenever they have to wait.
+ * A waiting thread joins its queue before re-checking the buffer, so a signal sent after the re-check is never missed,
+ * unless the subclass publishes without a full fence, in which case it asks for a periodic re-check instead
+ * @author Alex Harlock
+ */
+public abstract class AbstractRingBuffer implements BufferEngine
+{
+    private final int bufferCapacity;            // Maximum number of elements allowed on the buffer
+    private final long recheckNanos;             // Longest a parked thread waits before re-checking, or 0 for no limit
+    private final WaitQueue notFull = new WaitQueue();  // Users waiting for space on the buffer
+    private final WaitQueue notEmpty = new WaitQueue(); // Servers waiting for an element on the buffer
+    private final BufferStatus status = new BufferStatus(); // Stores whether the buffer was last seen full/empty
+    private volatile boolean closed = false;     // True once no more elements will be added
+    private volatile Listener listener;          // Told about every add and the close, or null
+
+    /**
+     * A buffer of the given capacity
+     * @param bufferCapacity The maximum capacity of the buffer
+     * @param recheckNanos Longest a parked User/Server waits before re-checking the buffer, or 0 to wait until signalled
+     */
+    protected AbstractRingBuffer(int bufferCapacity, long recheckNanos) {
+        this.bufferCapacity = bufferCapacity;
+        this.recheckNanos = recheckNanos;
+    }
+
+    /**
+     * Adds an element without waiting, waking or logging anything
+     * @param newElement The element to be added
+     * @return True if the element was added; False if the buffer is full
+     */
+    abstract boolean offer(int newElement);
+
+    /**
+     * Removes the oldest element without waiting, waking or logging anything
+     * @return The element removed, or EMPTY if the buffer is empty
+     */
+    abstract long poll();
+
+    /**
+     * Adds as many of the given elements as there is space for, without waiting, waking or logging anything
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added
+     */
+    abstract int offerBatch(int[] src, int off, int len);
+
+    /**
+     * Removes up to max of the oldest elements, without waiting, waking or logging anything
+     * @param dst Array the removed elements are written to
+     * @param off Index in dst the first removed element is written to
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    abstract int pollBatch(int[] dst, int off, int max);
+
+    /**
+     * Attempts to add an element to the buffer without waiting
+     * @param newElement The element to be added to the buffer
+     * @return True if add was successful; False otherwise
+     */
+    @Override
+    public boolean attemptAdd(int newElement) {
+        checkOpen();
+        if (offer(newElement)) {
+            added(1);
+            return true;
+        }
+        full();
+        return false;
+    }
+
+    /**
+     * Attempts to remove an element from the buffer without waiting
+     * @return True if remove was successful; False otherwise
+     */
+    @Override
+    public boolean attemptRemove() {
+        if (poll() != EMPTY) {
+            removed(1);
+            return true;
+        }
+        empty();
+        return false;
+    }
+
+    /**
+     * Adds an element to the buffer, waiting for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     */
+    @Override
+    public void put(int newElement) throws InterruptedException {
+        addWaiting(newElement, false, 0L);
+    }
+
+    /**
+     * Adds an element to the buffer, waiting up to the given time for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the element was added; False if no space was made in time
+     */
+    @Override
+    public boolean offer(int newElement, long timeout, TimeUnit unit) throws InterruptedException {
+        return addWaiting(newElement, true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Adds an element, joining the queue of waiting Users and parking while the buffer is full
+     * @param newElement The element to be added to the buffer
+     * @param timed True if the wait should give up after nanos
+     * @param nanos The maximum time to wait, if timed
+     * @return True if the element was added; False if the time ran out first
+     */
+    private boolean addWaiting(int newElement, boolean timed, long nanos) throws InterruptedException {
+        checkOpen();
+        if (!offer(newElement)) {
+            full();
+            long deadline = System.nanoTime() + nanos;
+            while (true) {
+                notFull.enqueue(); // Published before re-checking so a Server removing an element will signal us
+                if (offer(newElement)) {
+                    notFull.dequeue();
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (timed && remaining <= 0) {
+                    notFull.dequeue();
+                    return false;
+                }
+                notFull.await(parkNanos(timed, remaining));
+            }
+        }
+        added(1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element from the buffer, waiting for an element if the buffer is empty
+     * @return The element removed from the buffer
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    @Override
+    public int take() throws InterruptedException, BufferClosedException {
+        return (int) removeWaiting(false, 0L);
+    }
+
+    /**
+     * Removes the oldest element from the buffer, waiting up to the given time for an element if the buffer is empty
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The element removed from the buffer, or EMPTY if none arrived in time
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    @Override
+    public long poll(long timeout, TimeUnit unit) throws InterruptedException, BufferClosedException {
+        return removeWaiting(true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Removes an element, joining the queue of waiting Servers and parking while the buffer is empty
+     * @param timed True if the wait should give up after nanos
+     * @param nanos The maximum time to wait, if timed
+     * @return The element removed from the buffer, or EMPTY if the time ran out first
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    private long removeWaiting(boolean timed, long nanos) throws InterruptedException, BufferClosedException {
+        long element = poll();
+        if (element == EMPTY) {
+            empty();
+            long deadline = System.nanoTime() + nanos;
+            while (true) {
+                notEmpty.enqueue(); // Published before re-checking so a User adding an element will signal us
+                if ((element = poll()) != EMPTY) {
+                    notEmpty.dequeue();
+                    break;
+                }
+                if (closed) { // Checked after enqueueing, so a close() racing with us always wakes us
+                    notEmpty.dequeue();
+                    throw new BufferClosedException();
+                }
+                long remaining = deadline - System.nanoTime();
+                if (timed && remaining <= 0) {
+                    notEmpty.dequeue();
+                    return EMPTY;
+                }
+                notEmpty.await(parkNanos(timed, remaining));
+            }
+        }
+        removed(1);
+        return element;
+    }
+
+    /**
+     * Gets how long a waiting User/Server parks before re-checking the buffer
+     * @param timed True if the wait gives up at a deadline
+     * @param remaining The time left until the deadline, if timed
+     * @return The time to park, or 0 to park until signalled
+     */
+    private long parkNanos(boolean timed, long remaining) {
+        if (!timed) {
+            return recheckNanos;
+        }
+        return (recheckNanos > 0) ? Math.min(remaining, recheckNanos) : remaining;
+    }
+
+    /**
+     * Adds as many of the given elements as there is space for
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added, from src[off] onwards
+     */
+    @Override
+    public int addBatch(int[] src, int off, int len) {
+        checkOpen();
+        int count = offerBatch(src, off, len);
+        if (count > 0) {
+            added(count);
+        }
+        else {
+            full();
+        }
+        return count;
+    }
+
+    /**
+     * Removes up to max of the oldest elements from the buffer
+     * @param dst Array the removed elements are written to, starting at index 0
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    @Override
+    public int drainTo(int[] dst, int max) {
+        int count = pollBatch(dst, 0, max);
+        if (count > 0) {
+            removed(count);
+        }
+        else {
+            empty();
+        }
+        return count;
+    }
+
+    /**
+     * Marks the end of the stream of elements, waking every Server waiting for an element so it can finish
+     */
+    @Override
+    public void close() {
+        closed = true;
+        notEmpty.signal(Integer.MAX_VALUE);
+        Listener current = listener;
+        if (current != null) {
+            current.closed();
+        }
+    }
+
+    /**
+     * Gets whether the buffer has been closed
+     * @return True if no more elements will be added; False otherwise
+     */
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sets the listener told about every add and the close, replacing any earlier one
+     * @param listener The listener, or null for none
+     */
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Displays the number of elements remaining on the buffer and how long the program execution took
+     * @param timeToComplete The time in milliseconds for the program to run
+     */
+    @Override
+    public void finalSummation(long timeToComplete) {
+        System.out.println("--------------------------");
+        System.out.println(describeRemaining());
+        System.out.println("--------------------------");
+        System.out.println("Program took " + timeToComplete + " milliseconds to complete");
+    }
+
+    /**
+     * Describes what is left on the buffer, for the summary
+     * @return A line stating the number of elements remaining
+     */
+    protected String describeRemaining() {
+        return "Buffer has " + getNumElementsInBuffer() + " elements remaining";
+    }
+
+    /**
+     * Gets the maximum number of elements allowed on the buffer at one time
+     * @return An integer value pertaining to the maximum capacity of the buffer
+     */
+    @Override
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    /**
+     * Gets whether the buffer was last seen full or empty, and how long it has spent in each state
+     * @return The buffer status
+     */
+    @Override
+    public BufferStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Checks that elements may still be added
+     * @throws IllegalStateException If the buffer has been closed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Cannot add to a closed buffer");
+        }
+    }
+
+    /**
+     * Updates the buffer state and wakes waiting Servers after elements have been added
+     * @param count The number of elements added
+     */
+    private void added(int count) {
+        status.updateEmpty(false);
+        notEmpty.signal(count);
+        Listener current = listener;
+        if (current != null) {
+            current.added(count);
+        }
+    }
+
+    /**
+     * Updates the buffer state and wakes waiting Users after elements have been removed
+     * @param count The number of elements removed
+     */
+    private void removed(int count) {
+        status.updateFull(false);
+        notFull.signal(count);
+    }
+
+    /**
+     * Records that the buffer was found full, logging it once per transition
+     */
+    private void full() {
+        if (status.updateFull(true)) {
+            EventLog.bufferFull();
+        }
+    }
+
+    /**
+     * Records that the buffer was found empty, logging it once per transition
+     */
+    private void empty() {
+        if (status.updateEmpty(true)) {
+            EventLog.bufferEmpty();
+        }
+    }
+}
@@ -0,0 +1,504 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This abstract class represents a buffer whose subclasses only say how elements are stored and taken back out -
+ * It supplies everything built around that: a lock guarding the elements, a pair of counting semaphores tracking the
+ * free spaces and the elements so Users and Servers only take the lock once they know their add/remove can go ahead,
+ * batches, closing, the listener and the full/empty status, so the semaphore-based engines add, remove, drain and
+ * close identically
+ * @author Alex Harlock
+ */
+public abstract class AbstractSemaphoreBuffer implements BufferEngine
+{
+    private static final int CLOSED_PERMITS = Integer.MAX_VALUE / 2; // Element permits released on close, so no Server waits again
+
+    private final int bufferCapacity;            // Maximum number of elements allowed on the buffer
+    private final MySemaphore semaphore;         // Lock guarding the elements, which also records the full/empty states
+    private final MySemaphore spaces;            // One permit for every free space on the buffer
+    private final MySemaphore elements;          // One permit for every element on the buffer
+    private volatile int numElementsInBuffer = 0; // Number of elements currently on the buffer
+    private volatile boolean closed = false;     // True once no more elements will be added
+    private volatile Listener listener;          // Told about every add and the close, or null
+
+    /**
+     * A buffer of the given capacity
+     * @param bufferCapacity The maximum capacity of the buffer
+     * @param fair True if waiting Users and Servers should be served in strict arrival order
+     */
+    protected AbstractSemaphoreBuffer(int bufferCapacity, boolean fair) {
+        this.bufferCapacity = bufferCapacity;
+        this.semaphore = new MySemaphore(1, fair);
+        this.spaces = new MySemaphore(bufferCapacity, fair);
+        this.elements = new MySemaphore(0, fair);
+    }
+
+    /**
+     * Stores an element - The caller holds the lock and a space permit
+     * @param newElement The element to be stored
+     * @param lane The lane to store it in, as returned by laneFor()
+     * @param now The time returned by timestamp() when the add began
+     */
+    abstract void store(int newElement, int lane, long now);
+
+    /**
+     * Takes out the next element to be removed - The caller holds the lock and at least one element is stored
+     * @param now The time returned by timestamp() when the remove began
+     * @return The element taken out
+     */
+    abstract int fetch(long now);
+
+    /**
+     * Refills the space left by an element just taken out, from elements held beyond the capacity - The caller holds
+     * the lock
+     * @return True if the space was refilled, so no space permit is released for it; False otherwise
+     */
+    boolean refill() {
+        return false;
+    }
+
+    /**
+     * Discards the oldest element that an element of the given lane may displace - The caller holds the lock
+     * @param lane The lane of the element that did not fit, as returned by laneFor()
+     * @return True if an element was discarded; False if there was none it may displace
+     */
+    boolean evict(int lane) {
+        if (numElementsInBuffer == 0) {
+            return false;
+        }
+        fetch(timestamp());
+        return true;
+    }
+
+    /**
+     * Gets the lane an element added to the given lane is stored in - Buffers without lanes ignore the lane
+     * @param lane The lane asked for
+     * @return The lane to store in
+     */
+    int laneFor(int lane) {
+        return 0;
+    }
+
+    /**
+     * Gets the time passed to store() and fetch() - Buffers that do not record how long elements wait skip the clock
+     * @return The current System.nanoTime(), or 0 if it is not needed
+     */
+    long timestamp() {
+        return 0L;
+    }
+
+    /**
+     * Attempts to add an element to the lowest priority lane, the only lane of a buffer without lanes
+     * @param newElement The element to be added to the buffer
+     * @return True if add was successful; False otherwise
+     */
+    @Override
+    public boolean attemptAdd(int newElement) throws InterruptedException {
+        return attemptAdd(newElement, getNumLanes() - 1);
+    }
+
+    /**
+     * Attempts to add an element to a lane without waiting
+     * @param newElement The element to be added to the buffer
+     * @param lane The lane to add to, 0 being the highest priority
+     * @return True if add was successful; False otherwise
+     */
+    @Override
+    public boolean attemptAdd(int newElement, int lane) throws InterruptedException {
+        checkOpen();
+        int target = laneFor(lane);
+        if (!spaces.tryAcquire()) {
+            bufferFull();
+            return false;
+        }
+        add(newElement, target);
+        return true;
+    }
+
+    /**
+     * Attempts to remove an element without waiting
+     * @return True if remove was successful; False otherwise
+     */
+    @Override
+    public boolean attemptRemove() throws InterruptedException {
+        if (!elements.tryAcquire()) {
+            bufferEmpty();
+            return false;
+        }
+        try {
+            remove();
+            return true;
+        } catch (BufferClosedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Discards the oldest element that an element of the given lane may displace, without waiting
+     * @param lane The lane of the element that did not fit, 0 being the highest priority
+     * @return True if an element was discarded; False if there was none it may displace
+     */
+    @Override
+    public boolean evictOldest(int lane) throws InterruptedException {
+        int target = laneFor(lane);
+        if (!elements.tryAcquire()) {
+            bufferEmpty();
+            return false;
+        }
+        semaphore.acquire(); // Attempt to acquire the lock
+        if (!evict(target)) {
+            semaphore.release(); // Release the lock
+            elements.release(); // The element the permit stood for is still there
+            return false;
+        }
+        boolean refilled = refill();
+        numElementsInBuffer--;
+        semaphore.release(); // Release the lock
+        if (!refilled) {
+            removed(1);
+        }
+        return true;
+    }
+
+    /**
+     * Adds an element to the lowest priority lane, waiting for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     */
+    @Override
+    public void put(int newElement) throws InterruptedException {
+        put(newElement, getNumLanes() - 1);
+    }
+
+    /**
+     * Adds an element to a lane, waiting for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     * @param lane The lane to add to, 0 being the highest priority
+     */
+    @Override
+    public void put(int newElement, int lane) throws InterruptedException {
+        checkOpen();
+        int target = laneFor(lane);
+        if (!spaces.tryAcquire()) {
+            bufferFull();
+            spaces.acquire(); // Sleep until a server makes space
+        }
+        add(newElement, target);
+    }
+
+    /**
+     * Adds an element to the lowest priority lane, waiting up to the given time for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the element was added; False if no space was made in time
+     */
+    @Override
+    public boolean offer(int newElement, long timeout, TimeUnit unit) throws InterruptedException {
+        return offer(newElement, getNumLanes() - 1, timeout, unit);
+    }
+
+    /**
+     * Adds an element to a lane, waiting up to the given time for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     * @param lane The lane to add to, 0 being the highest priority
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the element was added; False if no space was made in time
+     */
+    @Override
+    public boolean offer(int newElement, int lane, long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        int target = laneFor(lane);
+        if (!spaces.tryAcquire()) {
+            bufferFull();
+            if (!spaces.tryAcquire(timeout, unit)) { // Sleep until a server makes space or the time runs out
+                return false;
+            }
+        }
+        add(newElement, target);
+        return true;
+    }
+
+    /**
+     * Removes an element, waiting for an element if the buffer is empty
+     * @return The element removed from the buffer
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    @Override
+    public int take() throws InterruptedException, BufferClosedException {
+        if (!elements.tryAcquire()) {
+            bufferEmpty();
+            elements.acquire(); // Sleep until a user adds an element
+        }
+        return remove();
+    }
+
+    /**
+     * Removes an element, waiting up to the given time for an element if the buffer is empty
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The element removed from the buffer, or EMPTY if none arrived in time
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    @Override
+    public long poll(long timeout, TimeUnit unit) throws InterruptedException, BufferClosedException {
+        if (!elements.tryAcquire()) {
+            bufferEmpty();
+            if (!elements.tryAcquire(timeout, unit)) { // Sleep until a user adds an element or the time runs out
+                return EMPTY;
+            }
+        }
+        return remove();
+    }
+
+    /**
+     * Adds as many of the given elements to the lowest priority lane as there is space for
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added, from src[off] onwards
+     */
+    @Override
+    public int addBatch(int[] src, int off, int len) throws InterruptedException {
+        return addBatch(src, off, len, getNumLanes() - 1);
+    }
+
+    /**
+     * Adds as many of the given elements to a lane as there is space for under a single acquisition of the lock
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @param lane The lane to add to, 0 being the highest priority
+     * @return The number of elements added, from src[off] onwards
+     */
+    @Override
+    public int addBatch(int[] src, int off, int len, int lane) throws InterruptedException {
+        checkOpen();
+        int target = laneFor(lane);
+        int count = spaces.tryAcquireUpTo(len);
+        if (count == 0) {
+            bufferFull();
+            return 0;
+        }
+        long now = timestamp();
+        semaphore.acquire(); // Attempt to acquire the lock
+        for (int i = 0; i < count; i++) {
+            store(src[off + i], target, now);
+        }
+        numElementsInBuffer += count;
+        semaphore.release(); // Release the lock
+        added(count);
+        return count;
+    }
+
+    /**
+     * Removes up to max elements under a single acquisition of the lock
+     * @param dst Array the removed elements are written to, starting at index 0
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    @Override
+    public int drainTo(int[] dst, int max) throws InterruptedException {
+        int count = elements.tryAcquireUpTo(max);
+        if (count == 0) {
+            bufferEmpty();
+            return 0;
+        }
+        long now = timestamp();
+        semaphore.acquire(); // Attempt to acquire the lock
+        int available = Math.min(count, numElementsInBuffer); // Fewer than count only once closed - The count
+        int freed = 0;                                         // includes any elements refill() brings back
+        for (int i = 0; i < available; i++) {
+            dst[i] = fetch(now);
+            if (!refill()) {
+                freed++;
+            }
+        }
+        numElementsInBuffer -= available;
+        semaphore.release(); // Release the lock
+        if (available < count) {
+            elements.release(count - available); // Hand back the permits released by close()
+        }
+        if (freed > 0) {
+            removed(freed);
+        }
+        return available;
+    }
+
+    /**
+     * Marks the end of the stream of elements - Releases enough element permits that no Server waits again, and a
+     * Server holding a permit with no element behind it throws BufferClosedException instead of removing
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            elements.release(CLOSED_PERMITS);
+            Listener current = listener;
+            if (current != null) {
+                current.closed();
+            }
+        }
+    }
+
+    /**
+     * Gets whether the buffer has been closed
+     * @return True if no more elements will be added; False otherwise
+     */
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sets the listener told about every add and the close, replacing any earlier one
+     * @param listener The listener, or null for none
+     */
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the maximum number of elements allowed on the buffer at one time
+     * @return An integer value pertaining to the maximum capacity of the buffer
+     */
+    @Override
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    /**
+     * Gets the number of elements currently in the buffer
+     * @return An integer value pertaining to the number of elements currently in the buffer
+     */
+    @Override
+    public int getNumElementsInBuffer() {
+        return numElementsInBuffer;
+    }
+
+    /**
+     * Gets whether the buffer was last seen full or empty, and how long it has spent in each state
+     * @return The buffer status
+     */
+    @Override
+    public BufferStatus getStatus() {
+        return semaphore.getStatus();
+    }
+
+    /**
+     * Acquires the lock guarding the elements, for a subclass storing an element outside add()
+     */
+    protected final void lock() throws InterruptedException {
+        semaphore.acquire();
+    }
+
+    /**
+     * Releases the lock guarding the elements
+     */
+    protected final void unlock() {
+        semaphore.release();
+    }
+
+    /**
+     * Takes a space permit without waiting, for a subclass that holds the element elsewhere if there is none
+     * @return True if a permit was taken; False if the buffer is full
+     */
+    protected final boolean tryAcquireSpace() {
+        return spaces.tryAcquire();
+    }
+
+    /**
+     * Counts elements a subclass has stored itself - The caller holds the lock, and calls added() once released
+     * @param count The number of elements stored
+     */
+    protected final void stored(int count) {
+        numElementsInBuffer += count;
+    }
+
+    /**
+     * Checks that elements may still be added
+     * @throws IllegalStateException If the buffer has been closed
+     */
+    protected final void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Cannot add to a closed buffer");
+        }
+    }
+
+    /**
+     * Makes newly added elements available to Servers
+     * @param count The number of elements added
+     */
+    protected final void added(int count) {
+        semaphore.updateBufferEmptyStatus(false);
+        elements.release(count);
+        Listener current = listener;
+        if (current != null) {
+            current.added(count);
+        }
+    }
+
+    /**
+     * Records that a User found the buffer full, logging it once per transition
+     */
+    protected final void bufferFull() {
+        if (semaphore.updateBufferFullStatus(true)) {
+            EventLog.bufferFull();
+        }
+    }
+
+    /**
+     * Adds an element - The caller must already hold a space permit
+     * @param newElement The element to be added
+     * @param lane The lane to add to, as returned by laneFor()
+     */
+    private void add(int newElement, int lane) throws InterruptedException {
+        long now = timestamp();
+        semaphore.acquire(); // Attempt to acquire the lock
+        store(newElement, lane, now);
+        numElementsInBuffer++;
+        semaphore.release(); // Release the lock
+        added(1);
+    }
+
+    /**
+     * Removes the next element - The caller must already hold an element permit
+     * @return The element removed
+     * @throws BufferClosedException If the permit was released by close() and the buffer is empty
+     */
+    private int remove() throws InterruptedException, BufferClosedException {
+        long now = timestamp();
+        semaphore.acquire(); // Attempt to acquire the lock
+        if (numElementsInBuffer == 0) {
+            semaphore.release(); // Release the lock
+            elements.release(); // Hand the permit on so every other Server sees the end too
+            throw new BufferClosedException();
+        }
+        int element = fetch(now);
+        boolean refilled = refill();
+        numElementsInBuffer--;
+        semaphore.release(); // Release the lock
+        if (!refilled) {
+            removed(1);
+        }
+        return element;
+    }
+
+    /**
+     * Makes newly freed spaces available to Users
+     * @param count The number of elements removed
+     */
+    private void removed(int count) {
+        semaphore.updateBufferFullStatus(false);
+        spaces.release(count);
+    }
+
+    /**
+     * Records that a Server found the buffer empty, logging it once per transition
+     */
+    private void bufferEmpty() {
+        if (semaphore.updateBufferEmptyStatus(true)) {
+            EventLog.bufferEmpty();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class represents the intended arrival times of the elements in an open-loop run - Users add each element
+ * at its scheduled time whether or not the buffer kept up with the previous ones, and Servers measure latency from
+ * the scheduled time rather than from when the add actually happened, so time spent waiting for a full buffer is
+ * not hidden (coordinated omission). Element values are indexes into the schedule, which holds one long per element
+ * @author Alex Harlock
+ */
+public class ArrivalSchedule {
+
+    /**
+     * How the gaps between arrivals are spread
+     */
+    public enum Process {
+        CONSTANT, // Evenly spaced arrivals
+        POISSON   // Exponentially distributed gaps with the same mean, i.e. random bursts and lulls
+    }
+
+    private final long[] intendedNanos;     // System.nanoTime() at which each element was due to be added
+    private final Process process;          // How the gaps between arrivals are spread
+    private final double ratePerSecond;     // Target number of arrivals per second across all Users
+    private final double userIntervalNanos; // Mean gap between the arrivals of a single User
+    private final int numUsers;             // Number of Users sharing the target rate
+    private long startNanos;                // System.nanoTime() at which the schedule began
+
+    /**
+     * A schedule for the given number of elements, shared evenly by the Users
+     * @param numElements The total number of elements to be added
+     * @param process How the gaps between arrivals are spread
+     * @param ratePerSecond The target number of arrivals per second across all Users
+     * @param numUsers The number of Users adding elements
+     */
+    public ArrivalSchedule(int numElements, Process process, double ratePerSecond, int numUsers) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be positive");
+        }
+        this.intendedNanos = new long[numElements];
+        this.process = process;
+        this.ratePerSecond = ratePerSecond;
+        this.numUsers = Math.max(1, numUsers);
+        this.userIntervalNanos = this.numUsers * 1e9 / ratePerSecond;
+    }
+
+    /**
+     * Starts the schedule - Called before any User starts, so every User's arrivals are measured from the same time
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the arrival time of a User's first element - Constant rate Users are staggered across one gap so their
+     * arrivals interleave evenly instead of all landing together
+     * @param userIndex The User's index, from 0
+     * @return The System.nanoTime() at which the User's first element is due
+     */
+    public long getFirstArrival(int userIndex) {
+        if (process == Process.CONSTANT) {
+            return startNanos + (long) (userIndex % numUsers * userIntervalNanos / numUsers);
+        }
+        return startNanos + nextInterval();
+    }
+
+    /**
+     * Gets the gap between a User's arrivals
+     * @return The gap in nanoseconds - Fixed for CONSTANT and randomly drawn for POISSON
+     */
+    public long nextInterval() {
+        if (process == Process.CONSTANT) {
+            return (long) userIntervalNanos;
+        }
+        return (long) (-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * userIntervalNanos);
+    }
+
+    /**
+     * Records when an element is due to be added
+     * @param index The element
+     * @param nanos The System.nanoTime() at which it is due
+     */
+    public void setIntended(int index, long nanos) {
+        intendedNanos[index] = nanos;
+    }
+
+    /**
+     * Gets when an element was due to be added - Only read by a Server after removing the element, by which point
+     * the buffer has published the User's write
+     * @param index The element
+     * @return The System.nanoTime() at which it was due
+     */
+    public long getIntended(int index) {
+        return intendedNanos[index];
+    }
+
+    /**
+     * Gets how the gaps between arrivals are spread
+     * @return The arrival process
+     */
+    public Process getProcess() {
+        return process;
+    }
+
+    /**
+     * Gets the target number of arrivals per second across all Users
+     * @return The target rate
+     */
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+}
@@ -1,113 +1,197 @@
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 /**
- * This class represents a buffer which can be added to and removed from
+ * This class represents a buffer backed by a LinkedList which can be added to and removed from -
+ * A pair of counting semaphores track the free spaces and the elements on the buffer, so Users and Servers only
+ * take the lock around the list once they know their add/remove can go ahead
  * @author Alex Harlock
  */
-public class Buffer
+public class Buffer extends AbstractSemaphoreBuffer
 {
-    private final LinkedList<Object> bufferList; // List representing the elements on the buffer
-    private int numElementsInBuffer = 0;		 // Number of elements currently on the queue
-    private final int bufferCapacity;			 // Maximum number of elements allowed on the queue
-    private final MySemaphore semaphore;         // Maximum number of elements allowed on the queue
+    private final LinkedList<Integer> bufferList; // List representing the elements on the buffer
+    private final SpillQueue spill;              // Elements beyond the capacity, held on disk in overflow mode, or null
 
     /**
      * A Buffer acting as a queue, from which elements can be added and removed
      * @param bufferCapacity The maximum capacity of the buffer
      */
     public Buffer(int bufferCapacity) {
+        this(bufferCapacity, false);
+    }
+
+    /**
+     * A Buffer acting as a queue, from which elements can be added and removed
+     * @param bufferCapacity The maximum capacity of the buffer
+     * @param fair True if waiting Users and Servers should be served in strict arrival order
+     */
+    public Buffer(int bufferCapacity, boolean fair) {
+        this(bufferCapacity, fair, null);
+    }
+
+    /**
+     * A Buffer acting as a queue, which in overflow mode never makes Users wait - Once the list is full, further
+     * elements are spilled to disk and brought back into the list as Servers make space, in the order they were added
+     * @param bufferCapacity The maximum number of elements held in memory
+     * @param fair True if waiting Users and Servers should be served in strict arrival order
+     * @param spill Queue to spill elements to once the list is full, or null to make Users wait for space instead
+     */
+    public Buffer(int bufferCapacity, boolean fair, SpillQueue spill) {
+        super(bufferCapacity, fair);
+        this.spill = spill;
         this.bufferList = new LinkedList<>();
-        this.bufferCapacity = bufferCapacity;
-        this.semaphore = new MySemaphore(1);
     }
 
     /**
-     * Attempts to add an element to the queue
-     * @param user An instance of the User adding to the queue
+     * Attempts to add an element to the queue - In overflow mode the element is always accepted
      * @param newElement The element to be added to the queue
+     * @param lane Ignored, as the queue has no lanes
      * @return True if add was successful; False otherwise
      */
-    public boolean attemptAdd(User user, int newElement) throws InterruptedException {
-        semaphore.acquire(); // Attempt to acquire the lock
-        if (numElementsInBuffer < bufferCapacity) {
-            semaphore.updateBufferFullStatus();
-            add(user, newElement);
-            semaphore.release(); // Release the lock
-            return true;
+    @Override
+    public boolean attemptAdd(int newElement, int lane) throws InterruptedException {
+        if (spill == null) {
+            return super.attemptAdd(newElement, lane);
+        }
+        checkOpen();
+        addOrSpill(newElement);
+        return true;
+    }
+
+    /**
+     * Adds an element to the queue, waiting for space if the buffer is full - In overflow mode it never waits
+     * @param newElement The element to be added to the queue
+     * @param lane Ignored, as the queue has no lanes
+     */
+    @Override
+    public void put(int newElement, int lane) throws InterruptedException {
+        if (spill == null) {
+            super.put(newElement, lane);
+            return;
         }
-        else if (!semaphore.getBufferFull()) {
-            semaphore.updateBufferFullStatus();
-            user.displayBufferFull();
+        checkOpen();
+        addOrSpill(newElement);
+    }
+
+    /**
+     * Adds an element to the end of the queue, waiting up to the given time for space if the buffer is full - In
+     * overflow mode the element is always accepted
+     * @param newElement The element to be added to the queue
+     * @param lane Ignored, as the queue has no lanes
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the element was added; False if no space was made in time
+     */
+    @Override
+    public boolean offer(int newElement, int lane, long timeout, TimeUnit unit) throws InterruptedException {
+        if (spill == null) {
+            return super.offer(newElement, lane, timeout, unit);
         }
-        semaphore.release(); // Release the lock
-        return false;
+        checkOpen();
+        addOrSpill(newElement);
+        return true;
     }
 
     /**
-     * Attempts to remove an element from the end of the queue
-     * @param server An instance of the server removing an element from the queue
-     * @return True if remove was successful; False otherwise
+     * Adds as many of the given elements as there is space for under a single acquisition of the lock - In overflow
+     * mode every element is accepted
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @param lane Ignored, as the queue has no lanes
+     * @return The number of elements added, from src[off] onwards
      */
-    public boolean attemptRemove(Server server) throws InterruptedException {
-        semaphore.acquire(); // Attempt to acquire the lock
-        if (numElementsInBuffer > 0) {
-            semaphore.updateBufferEmptyStatus();
-            remove(server);
-            semaphore.release(); // Release the lock
-            return true;
+    @Override
+    public int addBatch(int[] src, int off, int len, int lane) throws InterruptedException {
+        if (spill == null) {
+            return super.addBatch(src, off, len, lane);
+        }
+        checkOpen();
+        for (int i = 0; i < len; i++) {
+            addOrSpill(src[off + i]);
         }
-        else if (!semaphore.getBufferEmpty()){
-            semaphore.updateBufferEmptyStatus();
-            server.displayBufferEmpty();
+        return len;
+    }
+
+    /**
+     * Deletes the files of any elements spilled to disk, once the run is over
+     */
+    @Override
+    public void dispose() {
+        if (spill != null) {
+            spill.close();
         }
-        semaphore.release(); // Release the lock
-        return false;
     }
 
     /**
      * Displays the number of elements remaining on the buffer and how long the program execution took
      * @param timeToComplete The time in milliseconds for the program to run
      */
+    @Override
     public void finalSummation(long timeToComplete) {
         System.out.println("--------------------------");
-        System.out.println("Buffer has " + numElementsInBuffer + " elements remaining");
+        System.out.println("Buffer has " + getNumElementsInBuffer() + " elements remaining");
+        if (spill != null) {
+            System.out.println("Spilled " + spill.getNumSpilled() + " elements to disk and reloaded "
+                    + spill.getNumReloaded() + " across " + spill.getNumSegments() + " segment files");
+        }
         System.out.println("--------------------------");
         System.out.println("Program took " + timeToComplete + " milliseconds to complete");
     }
 
     /**
-     * Gets the maximum number of elements allowed on the buffer at one time
-     * @return An integer value pertaining to the maximum capacity of the buffer
+     * Adds an element to the end of the list - The caller holds the lock
+     * @param newElement The element to be added
+     * @param lane Ignored, as the queue has no lanes
+     * @param now Ignored, as the queue does not record when elements were added
      */
-    public int getBufferCapacity() {
-        return bufferCapacity;
+    @Override
+    void store(int newElement, int lane, long now) {
+        bufferList.add(newElement);
     }
 
     /**
-     * Gets the number of elements currently in the buffer
-     * @return An integer value pertaining to the number of elements currently in the buffer
+     * Removes the element at the front of the list - The caller holds the lock
+     * @param now Ignored, as the queue does not record when elements were added
+     * @return The element removed
      */
-    public int getNumElementsInBuffer() {
-        return numElementsInBuffer;
+    @Override
+    int fetch(long now) {
+        return bufferList.remove();
     }
 
     /**
-     * Adds an element to the queue
-     * @param user An instance of the User adding to the queue
-     * @param newElement The element to be added to the queue
+     * Moves the oldest spilled element into the space left by a removed element - The list stays full for as long
+     * as anything is on disk, so the space permit is kept rather than released. The caller holds the lock
+     * @return True if an element was reloaded; False if there was nothing on disk
      */
-    private void add(User user, int newElement) {
-        bufferList.add(newElement);
-        numElementsInBuffer++;
-        user.displayAddInfo();
+    @Override
+    boolean refill() {
+        if (spill == null || spill.isEmpty()) {
+            return false;
+        }
+        bufferList.add(spill.remove());
+        return true;
     }
 
     /**
-     * Removes an element from the end of the queue
-     * @param server An instance of the server removing an element from the queue
+     * Adds an element in overflow mode - It goes into the list if there is space and nothing is waiting on disk,
+     * and to the end of the spill queue otherwise, so elements are always removed in the order they were added
+     * @param newElement The element to be added
      */
-    private void remove(Server server) {
-        bufferList.remove();
-        numElementsInBuffer--;
-        server.displayRemoveInfo();
+    private void addOrSpill(int newElement) throws InterruptedException {
+        lock(); // Attempt to acquire the lock
+        boolean spilled = !spill.isEmpty() || !tryAcquireSpace();
+        if (spilled) {
+            spill.append(newElement);
+        }
+        else {
+            bufferList.add(newElement);
+        }
+        stored(1);
+        unlock(); // Release the lock
+        if (spilled) {
+            bufferFull();
+        }
+        added(1);
     }
 }
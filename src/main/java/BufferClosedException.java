@@ -0,0 +1,16 @@
+/**
+ * This class represents the end of the stream of elements - Thrown to a Server taking from a buffer that has been
+ * closed and has no elements left, so it knows to finish rather than wait
+ * @author Alex Harlock
+ */
+public class BufferClosedException extends Exception {
+
+    private static final long serialVersionUID = 1L; // Version of the serialized form
+
+    /**
+     * An exception signalling that a buffer is closed and empty
+     */
+    public BufferClosedException() {
+        super("Buffer is closed and empty");
+    }
+}
@@ -0,0 +1,201 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This interface represents a bounded buffer which Users add elements to and Servers remove elements from
+ * @author Alex Harlock
+ */
+public interface BufferEngine {
+
+    long EMPTY = Long.MIN_VALUE; // Returned by poll() when no element arrived in time
+
+    /**
+     * A consumer told when the buffer changes rather than waiting on it, such as a BufferPublisher
+     */
+    interface Listener {
+        /**
+         * Called after elements have been added, on the thread that added them
+         * @param count The number of elements added
+         */
+        void added(int count);
+
+        /**
+         * Called once the buffer has been closed, on the thread that closed it
+         */
+        void closed();
+    }
+
+    /**
+     * Attempts to add an element to the buffer without waiting
+     * @param newElement The element to be added to the buffer
+     * @return True if add was successful; False otherwise
+     */
+    boolean attemptAdd(int newElement) throws InterruptedException;
+
+    /**
+     * Attempts to remove an element from the buffer without waiting
+     * @return True if remove was successful; False otherwise
+     */
+    boolean attemptRemove() throws InterruptedException;
+
+    /**
+     * Adds an element to the buffer, waiting for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     */
+    void put(int newElement) throws InterruptedException;
+
+    /**
+     * Adds an element to the buffer, waiting up to the given time for space if the buffer is full
+     * @param newElement The element to be added to the buffer
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the element was added; False if no space was made in time
+     */
+    boolean offer(int newElement, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Removes the oldest element from the buffer, waiting for an element if the buffer is empty
+     * @return The element removed from the buffer
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    int take() throws InterruptedException, BufferClosedException;
+
+    /**
+     * Removes the oldest element from the buffer, waiting up to the given time for an element if the buffer is empty
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The element removed from the buffer, or EMPTY if none arrived in time
+     * @throws BufferClosedException If the buffer has been closed and every element has been removed
+     */
+    long poll(long timeout, TimeUnit unit) throws InterruptedException, BufferClosedException;
+
+    /**
+     * Adds as many of the given elements as there is space for, without waiting
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added, from src[off] onwards
+     */
+    int addBatch(int[] src, int off, int len) throws InterruptedException;
+
+    /**
+     * Removes up to max of the oldest elements from the buffer, without waiting
+     * @param dst Array the removed elements are written to, starting at index 0
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    int drainTo(int[] dst, int max) throws InterruptedException;
+
+    /**
+     * Attempts to add an element to one of the buffer's priority lanes without waiting - Buffers without lanes
+     * ignore the lane
+     * @param newElement The element to be added to the buffer
+     * @param lane The lane to add to, 0 being the highest priority
+     * @return True if add was successful; False otherwise
+     */
+    default boolean attemptAdd(int newElement, int lane) throws InterruptedException {
+        return attemptAdd(newElement);
+    }
+
+    /**
+     * Adds an element to one of the buffer's priority lanes, waiting for space if the buffer is full - Buffers
+     * without lanes ignore the lane
+     * @param newElement The element to be added to the buffer
+     * @param lane The lane to add to, 0 being the highest priority
+     */
+    default void put(int newElement, int lane) throws InterruptedException {
+        put(newElement);
+    }
+
+    /**
+     * Adds an element to one of the buffer's priority lanes, waiting up to the given time for space if the buffer is
+     * full - Buffers without lanes ignore the lane
+     * @param newElement The element to be added to the buffer
+     * @param lane The lane to add to, 0 being the highest priority
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the element was added; False if no space was made in time
+     */
+    default boolean offer(int newElement, int lane, long timeout, TimeUnit unit) throws InterruptedException {
+        return offer(newElement, timeout, unit);
+    }
+
+    /**
+     * Adds as many of the given elements to one of the buffer's priority lanes as there is space for, without
+     * waiting - Buffers without lanes ignore the lane
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @param lane The lane to add to, 0 being the highest priority
+     * @return The number of elements added, from src[off] onwards
+     */
+    default int addBatch(int[] src, int off, int len, int lane) throws InterruptedException {
+        return addBatch(src, off, len);
+    }
+
+    /**
+     * Discards the oldest element that an element of the given lane may displace, without waiting, to make space
+     * for it - Buffers without lanes discard the oldest element of all, as a remove that no Server receives
+     * @param lane The lane of the element that did not fit, 0 being the highest priority
+     * @return True if an element was discarded; False if there was none it may displace
+     */
+    default boolean evictOldest(int lane) throws InterruptedException {
+        return attemptRemove();
+    }
+
+    /**
+     * Gets the number of priority lanes the buffer serves
+     * @return The number of lanes, 1 for a buffer without lanes
+     */
+    default int getNumLanes() {
+        return 1;
+    }
+
+    /**
+     * Marks the end of the stream of elements, once every User has finished adding - Servers waiting on an empty
+     * buffer are woken, and Servers keep removing the elements left until take() throws BufferClosedException
+     */
+    void close();
+
+    /**
+     * Gets whether the buffer has been closed
+     * @return True if no more elements will be added; False otherwise
+     */
+    boolean isClosed();
+
+    /**
+     * Sets the listener told about every add and the close, replacing any earlier one
+     * @param listener The listener, or null for none
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Frees anything the buffer holds outside the heap, such as spill files, once the run is over - The buffer must
+     * not be used afterwards, although its counts can still be read
+     */
+    default void dispose() {
+    }
+
+    /**
+     * Displays the number of elements remaining on the buffer and how long the program execution took
+     * @param timeToComplete The time in milliseconds for the program to run
+     */
+    void finalSummation(long timeToComplete);
+
+    /**
+     * Gets the maximum number of elements allowed on the buffer at one time
+     * @return An integer value pertaining to the maximum capacity of the buffer
+     */
+    int getBufferCapacity();
+
+    /**
+     * Gets the number of elements currently in the buffer
+     * @return An integer value pertaining to the number of elements currently in the buffer
+     */
+    int getNumElementsInBuffer();
+
+    /**
+     * Gets whether the buffer was last seen full or empty, and how long it has spent in each state
+     * @return The buffer status
+     */
+    BufferStatus getStatus();
+}
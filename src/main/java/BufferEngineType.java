@@ -0,0 +1,65 @@
+/**
+ * This enum represents the buffer implementations the program can run with
+ * @author Alex Harlock
+ */
+public enum BufferEngineType {
+
+    LIST,    // LinkedList guarded by MySemaphore, with counting semaphores for spaces and elements
+    RING,    // Preallocated int[] ring with lock-free CAS indices
+    SHARDED, // Several rings, each thread working on its own home ring and stealing from the others
+    LANES,   // Priority lanes sharing one capacity, served by weighted round-robin or strict priority with aging
+    SPSC;    // Wait-free ring for exactly one User and one Server, with padded lazily published positions
+
+    /**
+     * Creates a buffer of this type - The "fair" setting, e.g. -Dcw.fair=true, makes the LIST buffer serve waiting
+     * threads in arrival order, the "spill" setting, e.g. -Dcw.spill=true -Dcw.spill.dir=/tmp/spill
+     * -Dcw.spill.segment=1048576, makes it spill elements beyond its capacity to disk, the "shards" setting, e.g.
+     * -Dcw.shards=8, sets the number of SHARDED rings and the "lanes.*" settings, e.g. -Dcw.lanes.weights=8,1 -Dcw.lanes.policy=priority -Dcw.lanes.aging=10, set
+     * the LANES buffer's lane weights (one lane per weight, highest priority first), policy and aging limit in ms
+     * @param bufferCapacity The maximum capacity of the buffer
+     * @return A new, empty buffer
+     */
+    public BufferEngine create(int bufferCapacity) {
+        switch (this) {
+            case SPSC:
+                return new SpscBuffer(bufferCapacity);
+            case RING:
+                return new RingBuffer(bufferCapacity);
+            case LANES:
+                return new LaneBuffer(bufferCapacity, parseWeights(Settings.getString("lanes.weights", "4,1")),
+                        LaneBuffer.Policy.valueOf(Settings.getString("lanes.policy", "wrr").trim().toUpperCase()),
+                        Settings.getInt("lanes.aging", 10));
+            case SHARDED:
+                return new ShardedBuffer(bufferCapacity, Settings.getInt("shards", Runtime.getRuntime().availableProcessors()));
+            case LIST:
+            default:
+                SpillQueue spill = Settings.getBoolean("spill", false)
+                        ? new SpillQueue(Settings.getString("spill.dir", null), Settings.getInt("spill.segment", 1 << 20))
+                        : null;
+                return new Buffer(bufferCapacity, Settings.getBoolean("fair", false), spill);
+        }
+    }
+
+    /**
+     * Gets the buffer type with the given name, ignoring case
+     * @param name The name of the buffer type, e.g. "ring"
+     * @return The matching buffer type
+     */
+    public static BufferEngineType fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Parses a comma separated list of lane weights
+     * @param weights The list, e.g. "4,1"
+     * @return The weight of each lane, highest priority first
+     */
+    private static int[] parseWeights(String weights) {
+        String[] parts = weights.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+}
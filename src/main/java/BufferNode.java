@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * This class represents a buffer served over the network, so RemoteUsers and RemoteServers in other processes can add
+ * to and remove from it - A single thread multiplexes every connection with a non-blocking NIO selector, reading
+ * whole BufferProtocol frames, applying them to the buffer without ever waiting on it and queueing the responses.
+ * Once the expected number of producers have sent CLOSE, the node closes the buffer, and consumers get CLOSED once
+ * they have drained it
+ * @author Alex Harlock
+ */
+public class BufferNode implements Runnable
+{
+    private static final int READ_BUFFER_BYTES = 2 * BufferProtocol.MAX_FRAME_BYTES; // Holds at least one whole frame
+    private static final int WRITE_BUFFER_BYTES = 1 << 16; // Initial size of each connection's response queue
+
+    private final BufferEngine buffer;          // The buffer being served
+    private final int expectedProducers;        // Number of CLOSE requests after which the buffer is closed
+    private final ServerSocketChannel listener; // Channel accepting new connections
+    private final Selector selector;            // Selector multiplexing the listener and every connection
+    private final int[] elements = new int[BufferProtocol.MAX_BATCH]; // Elements of the frame being handled
+    private final Thread thread;                // Thread running the selector loop
+    private volatile boolean running = true;    // False once the node has been asked to stop
+    private int producersClosed = 0;            // Number of CLOSE requests received
+    private int numConnections = 0;             // Number of connections currently open
+    private int totalConnections = 0;           // Number of connections accepted
+    private long framesIn = 0;                  // Number of requests handled
+    private long bytesIn = 0;                   // Number of bytes read
+    private long bytesOut = 0;                  // Number of bytes written
+    private long elementsAdded = 0;             // Number of elements added for clients
+    private long elementsRemoved = 0;           // Number of elements removed for clients
+    private long rejectedAdds = 0;              // Number of ADD requests the buffer could not take in full
+
+    /**
+     * A client connection, with its partly read requests and its queued responses
+     */
+    private static final class Connection {
+        ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);  // Bytes read but not yet handled, in write mode
+        ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES); // Responses not yet written, in write mode
+    }
+
+    /**
+     * A node serving the given buffer on a port of the local machine
+     * @param buffer The buffer to serve
+     * @param port The port to listen on, or 0 for any free port
+     * @param expectedProducers Number of producers that will send CLOSE before the buffer is closed
+     */
+    public BufferNode(BufferEngine buffer, int port, int expectedProducers) throws IOException {
+        this.buffer = buffer;
+        this.expectedProducers = Math.max(1, expectedProducers);
+        this.selector = Selector.open();
+        this.listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port));
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this, "BufferNode:" + getPort());
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts serving the buffer on the node's own thread
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Gets the port the node is listening on
+     * @return The port number
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) listener.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Runs the selector loop until the node is stopped
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        disconnect(key); // The client went away mid-request
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            closeChannels();
+        }
+    }
+
+    /**
+     * Accepts a new connection and starts watching it for requests
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = listener.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+        synchronized (this) {
+            numConnections++;
+            totalConnections++;
+        }
+    }
+
+    /**
+     * Reads whatever a connection has sent and handles every whole frame, queueing the responses
+     * @param key The connection's selection key
+     */
+    private void read(SelectionKey key) throws IOException, InterruptedException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        int read = channel.read(connection.in);
+        if (read < 0) {
+            disconnect(key);
+            return;
+        }
+        bytesIn += read;
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (in.remaining() >= BufferProtocol.HEADER_BYTES) {
+            int length = in.getInt(in.position());
+            if (length < 1 || length + 4 > in.capacity()) {
+                throw new IOException("Bad frame length " + length);
+            }
+            if (in.remaining() < length + 4) {
+                break; // The rest of the frame has not arrived yet
+            }
+            int end = in.position() + 4 + length;
+            in.getInt();
+            handle(in, connection);
+            in.position(end); // Skips whatever a rejected request left unread
+            framesIn++;
+        }
+        in.compact();
+        write(key); // Most responses go straight out without waiting for the next select
+    }
+
+    /**
+     * Applies one request to the buffer and queues its response
+     * @param in The connection's read buffer, positioned at the request's opcode
+     * @param connection The connection the request came from
+     */
+    private void handle(ByteBuffer in, Connection connection) throws InterruptedException {
+        byte opcode = in.get();
+        try {
+            switch (opcode) {
+                case BufferProtocol.ADD: {
+                    int count = in.getInt();
+                    if (count < 0 || count > BufferProtocol.MAX_BATCH) {
+                        throw new IllegalArgumentException("Batch of " + count + " elements is over the limit of "
+                                + BufferProtocol.MAX_BATCH);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        elements[i] = in.getInt();
+                    }
+                    int accepted = buffer.addBatch(elements, 0, count);
+                    elementsAdded += accepted;
+                    if (accepted < count) {
+                        rejectedAdds++;
+                    }
+                    ByteBuffer out = reserve(connection, BufferProtocol.HEADER_BYTES + 4);
+                    out.putInt(5).put(BufferProtocol.ADDED).putInt(accepted);
+                    break;
+                }
+                case BufferProtocol.REMOVE: {
+                    int max = Math.min(in.getInt(), BufferProtocol.MAX_BATCH);
+                    boolean closed = buffer.isClosed();
+                    int removed = buffer.drainTo(elements, max);
+                    if (removed == 0 && closed) { // Closed before the drain came back empty, so nothing can follow
+                        reserve(connection, BufferProtocol.HEADER_BYTES).putInt(1).put(BufferProtocol.CLOSED);
+                        break;
+                    }
+                    elementsRemoved += removed;
+                    ByteBuffer out = reserve(connection, BufferProtocol.HEADER_BYTES + 4 + 4 * removed);
+                    out.putInt(5 + 4 * removed).put(BufferProtocol.ELEMENTS).putInt(removed);
+                    for (int i = 0; i < removed; i++) {
+                        out.putInt(elements[i]);
+                    }
+                    break;
+                }
+                case BufferProtocol.CLOSE:
+                    synchronized (this) {
+                        if (++producersClosed >= expectedProducers) {
+                            buffer.close();
+                        }
+                    }
+                    reserve(connection, BufferProtocol.HEADER_BYTES).putInt(1).put(BufferProtocol.CLOSE_ACK);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown request " + BufferProtocol.nameOf(opcode));
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            byte[] message = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = reserve(connection, BufferProtocol.HEADER_BYTES + 4 + message.length);
+            out.putInt(5 + message.length).put(BufferProtocol.ERROR).putInt(message.length).put(message);
+        }
+    }
+
+    /**
+     * Makes room in a connection's response queue, growing it if the client has fallen behind reading
+     * @param connection The connection
+     * @param bytes The number of bytes about to be queued
+     * @return The response queue, with at least that many bytes free
+     */
+    private static ByteBuffer reserve(Connection connection, int bytes) {
+        if (connection.out.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(2 * connection.out.capacity(),
+                    connection.out.position() + bytes));
+            connection.out.flip();
+            larger.put(connection.out);
+            connection.out = larger;
+        }
+        return connection.out;
+    }
+
+    /**
+     * Writes as much of a connection's queued responses as the socket will take, watching for write readiness only
+     * while some are left over
+     * @param key The connection's selection key
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        out.flip();
+        bytesOut += ((SocketChannel) key.channel()).write(out);
+        boolean pending = out.hasRemaining();
+        out.compact();
+        key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes a connection once its client has gone
+     * @param key The connection's selection key
+     */
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            numConnections--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the buffer has been closed and drained and every client has disconnected
+     */
+    public synchronized void awaitDrained() throws InterruptedException {
+        while (!buffer.isClosed() || buffer.getNumElementsInBuffer() > 0 || numConnections > 0) {
+            wait(10); // Closing the buffer does not notify, so re-check periodically
+        }
+    }
+
+    /**
+     * Stops the node and closes every connection
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+    }
+
+    /**
+     * Closes the listener, every connection and the selector
+     */
+    private void closeChannels() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Displays the traffic the node has served
+     */
+    public synchronized void displaySummary() {
+        System.out.println(String.format("Buffer node: %d connections, %d requests, %.1fMB in, %.1fMB out, "
+                        + "%d elements added, %d removed, %d adds found the buffer full, %d of %d producers closed",
+                totalConnections, framesIn, bytesIn / 1e6, bytesOut / 1e6, elementsAdded, elementsRemoved,
+                rejectedAdds, producersClosed, expectedProducers));
+    }
+}
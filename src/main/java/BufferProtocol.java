@@ -0,0 +1,59 @@
+/**
+ * This class represents the binary protocol spoken between a BufferNode and its RemoteUser/RemoteServer clients -
+ * Every frame is a 4 byte length (of everything after it), a 1 byte opcode and a payload of big-endian ints:
+ *   ADD      count, element x count    ->  ADDED    accepted (how many of the elements, from the first, were added)
+ *   REMOVE   max                       ->  ELEMENTS count, element x count (count is 0 while the buffer is empty)
+ *                                       or CLOSED  (the buffer is closed and drained)
+ *   CLOSE                              ->  CLOSE_ACK (one producer has finished adding)
+ * and any request can be answered with ERROR, length-prefixed UTF-8 message. Responses come back in request order, so
+ * clients pipeline many requests on one connection instead of waiting a round trip for each.
+ * Requests never wait on the buffer: a full buffer accepts fewer elements than were sent and an empty buffer returns
+ * none, and the client retries according to its wait strategy
+ * @author Alex Harlock
+ */
+public final class BufferProtocol {
+
+    public static final byte ADD = 1;        // Request: add a batch of elements
+    public static final byte REMOVE = 2;     // Request: remove up to a number of elements
+    public static final byte CLOSE = 3;      // Request: this producer has finished adding
+    public static final byte ADDED = 11;     // Response to ADD
+    public static final byte ELEMENTS = 12;  // Response to REMOVE
+    public static final byte CLOSED = 13;    // Response to REMOVE once the buffer is closed and drained
+    public static final byte CLOSE_ACK = 14; // Response to CLOSE
+    public static final byte ERROR = 15;     // Response to a request that failed
+
+    public static final int HEADER_BYTES = 5;       // Length and opcode at the start of every frame
+    public static final int MAX_BATCH = 1 << 14;    // Most elements carried by one ADD or ELEMENTS frame
+    public static final int MAX_FRAME_BYTES = HEADER_BYTES + 4 + 4 * MAX_BATCH; // Longest frame either side sends
+
+    private BufferProtocol() {
+    }
+
+    /**
+     * Gets the name of an opcode, for error messages
+     * @param opcode The opcode
+     * @return The opcode's name, or its number if it is unknown
+     */
+    public static String nameOf(byte opcode) {
+        switch (opcode) {
+            case ADD:
+                return "ADD";
+            case REMOVE:
+                return "REMOVE";
+            case CLOSE:
+                return "CLOSE";
+            case ADDED:
+                return "ADDED";
+            case ELEMENTS:
+                return "ELEMENTS";
+            case CLOSED:
+                return "CLOSED";
+            case CLOSE_ACK:
+                return "CLOSE_ACK";
+            case ERROR:
+                return "ERROR";
+            default:
+                return Byte.toString(opcode);
+        }
+    }
+}
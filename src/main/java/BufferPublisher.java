@@ -0,0 +1,343 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a buffer as a java.util.concurrent.Flow publisher - Users keep adding to the buffer, and each
+ * subscriber is pushed elements only as fast as it asks for them with request(n). Subscribers compete for elements,
+ * as Servers do, rather than each receiving every element. The publisher listens to the buffer instead of waiting on
+ * it: a delivery task is only started on the executor for a subscription that has both demand and elements to take,
+ * by the User that added them or by the subscriber's own request, and ends as soon as either runs out, so no thread is
+ * held while the buffer is empty or a subscriber has not asked for more.
+ * Closing the buffer, which ListCount.userThreadsComplete() does once every User has finished, completes every
+ * subscriber once the buffer has drained, whatever its demand. A subscription that is cancelled, or whose subscriber
+ * throws from onNext, ends like a Server that stops early: the elements drained for it but not yet delivered are
+ * handed back to the other subscribers, and it no longer holds up the end of the run
+ * @author Alex Harlock
+ */
+public class BufferPublisher implements Flow.Publisher<Integer>, BufferEngine.Listener
+{
+    private final BufferEngine buffer;   // The buffer elements are published from
+    private final Executor executor;     // Runs the delivery tasks
+    private final int batchSize;         // Maximum number of elements drained from the buffer at once
+    private final List<BufferSubscription> subscriptions = new CopyOnWriteArrayList<>(); // Every subscription
+    private final ConcurrentLinkedQueue<Integer> returned = new ConcurrentLinkedQueue<>(); // Undelivered elements handed back
+    private final AtomicLong inFlight = new AtomicLong(); // Elements drained from the buffer but not yet delivered
+    private final AtomicInteger nextToWake = new AtomicInteger(); // Subscription a User's add is offered to first
+    private int activeSubscriptions = 0; // Subscriptions that have not yet ended, guarded by this
+
+    /**
+     * A subscription's outstanding demand and the task delivering elements to it
+     */
+    private final class BufferSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Integer> subscriber; // Receiver of the elements
+        private final AtomicLong demand = new AtomicLong();        // Elements requested but not yet delivered
+        private final AtomicBoolean delivering = new AtomicBoolean(); // True while a delivery task is scheduled or running
+        private final int[] batch = new int[batchSize];            // Elements taken for delivery
+        private volatile boolean cancelled = false;                // True once the subscription should end
+        private volatile boolean ended = false;                    // True once the subscription has ended
+        private volatile Throwable error;                          // Error to signal on ending, or null
+        private long delivered = 0;                                // Number of elements delivered
+        private long batches = 0;                                  // Number of batches delivered
+        private long deliveryTasks = 0;                            // Number of times a delivery task was started
+
+        BufferSubscription(Flow.Subscriber<? super Integer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Adds to the demand, starting a delivery task if there are elements to deliver
+         * @param n The number of further elements wanted, which must be positive
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " elements, which is not positive");
+                cancel();
+                return;
+            }
+            demand.getAndUpdate(d -> (d + n < 0) ? Long.MAX_VALUE : d + n); // Saturates rather than overflowing
+            signal();
+        }
+
+        /**
+         * Ends the subscription - Elements already taken for it but not yet delivered go back to the others
+         */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+
+        /**
+         * Starts a delivery task if there is work for one and none is scheduled or running
+         * @return True if a task was started; False otherwise
+         */
+        private boolean signal() {
+            if (hasWork() && delivering.compareAndSet(false, true)) {
+                deliveryTasks++;
+                executor.execute(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gets whether a delivery task would do anything - deliver elements, end a cancelled subscription or complete
+         * a drained stream
+         * @return True if a task is needed; False otherwise
+         */
+        private boolean hasWork() {
+            return !ended && (cancelled || (demand.get() > 0 && hasElements())
+                    || (buffer.isClosed() && isDrained()));
+        }
+
+        /**
+         * Delivers elements while there is both demand and elements to take, then ends - The subscription is checked
+         * again once the task is no longer marked running, so an add, request or close made meanwhile is not missed
+         */
+        @Override
+        public void run() {
+            try {
+                while (!ended) {
+                    if (cancelled) {
+                        end();
+                        break;
+                    }
+                    long wanted = demand.get();
+                    int count = (wanted > 0) ? take(batch, (int) Math.min(wanted, batch.length)) : 0;
+                    if (count > 0) {
+                        if (wanted != Long.MAX_VALUE) {
+                            demand.addAndGet(-count);
+                        }
+                        deliverBatch(count);
+                    }
+                    else {
+                        if (isDrained()) {
+                            end();
+                        }
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                error = e;
+                end();
+            } finally {
+                delivering.set(false);
+            }
+            signal();
+        }
+
+        /**
+         * Passes the elements taken to the subscriber, handing back any it did not receive because it cancelled or
+         * threw from onNext
+         * @param count The number of elements taken into the batch
+         */
+        private void deliverBatch(int count) {
+            int i = 0;
+            try {
+                while (i < count && !cancelled) {
+                    subscriber.onNext(batch[i++]);
+                }
+            } catch (RuntimeException e) {
+                cancelled = true; // A subscriber must not throw from onNext, so stop delivering to it
+                e.printStackTrace();
+            }
+            delivered += i;
+            batches++;
+            if (i < count) {
+                handBack(batch, i, count - i);
+            }
+            if (inFlight.addAndGet(-i) == 0 && buffer.isClosed()) {
+                signalAll(); // Others may have been waiting on these elements to complete
+            }
+        }
+
+        /**
+         * Ends the subscription once, signalling its error or, if it was not cancelled, the end of the stream
+         */
+        private void end() {
+            ended = true;
+            if (error != null) {
+                subscriber.onError(error);
+            }
+            else if (!cancelled) {
+                subscriber.onComplete();
+            }
+            subscriptionEnded();
+        }
+    }
+
+    /**
+     * A publisher of the elements added to a buffer, listening to the buffer for adds and its close
+     * @param buffer The buffer to publish from
+     * @param executor Runs the tasks delivering elements to subscribers
+     * @param batchSize Maximum number of elements drained from the buffer at once
+     */
+    public BufferPublisher(BufferEngine buffer, Executor executor, int batchSize) {
+        this.buffer = buffer;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+        buffer.setListener(this);
+    }
+
+    /**
+     * Subscribes a subscriber, which receives nothing until it requests elements, unless the buffer is already
+     * closed and drained
+     * @param subscriber The subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+        BufferSubscription subscription = new BufferSubscription(subscriber);
+        synchronized (this) {
+            activeSubscriptions++;
+        }
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        subscription.signal();
+    }
+
+    /**
+     * Starts delivery to subscriptions with demand after a User adds elements - At most one idle subscription is
+     * started per element, taking turns so the elements are spread across the subscribers
+     * @param count The number of elements added
+     */
+    @Override
+    public void added(int count) {
+        int size = subscriptions.size();
+        if (size == 0) {
+            return;
+        }
+        int first = Math.floorMod(nextToWake.getAndIncrement(), size);
+        int started = 0;
+        for (int i = 0; i < size && started < count; i++) {
+            if (subscriptions.get((first + i) % size).signal()) {
+                started++;
+            }
+        }
+    }
+
+    /**
+     * Lets every subscription complete once the buffer has drained, whether or not it has demand
+     */
+    @Override
+    public void closed() {
+        signalAll();
+    }
+
+    /**
+     * Waits until every subscription has completed, failed or been cancelled
+     */
+    public synchronized void awaitSubscriptions() throws InterruptedException {
+        while (activeSubscriptions > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Gets the number of elements handed back by ended subscriptions that no subscription was left to take
+     * @return The number of elements taken from the buffer but never delivered
+     */
+    public int getNumUndelivered() {
+        return returned.size();
+    }
+
+    /**
+     * Displays how elements were pushed to the subscribers - the mean batch shows how much demand each drain could
+     * serve, and the delivery tasks how often a subscriber's demand or the buffer ran out and had to be renewed
+     */
+    public void displaySummary() {
+        long delivered = 0;
+        long batches = 0;
+        long tasks = 0;
+        for (BufferSubscription subscription : subscriptions) {
+            delivered += subscription.delivered;
+            batches += subscription.batches;
+            tasks += subscription.deliveryTasks;
+        }
+        System.out.println(String.format("Flow publisher: %d subscribers, %d elements in %d batches (mean %.2f), "
+                        + "%d delivery tasks", subscriptions.size(), delivered, batches,
+                (batches == 0) ? 0 : (double) delivered / batches, tasks));
+    }
+
+    /**
+     * Takes up to max elements for a subscription, preferring ones handed back by ended subscriptions over the
+     * buffer - Elements drained from the buffer are counted in flight before the drain, so isDrained() never sees
+     * them in neither place, without a lock serializing the subscriptions' drains
+     * @param dst Array the elements are written to, starting at index 0
+     * @param max Maximum number of elements to take
+     * @return The number of elements taken
+     */
+    private int take(int[] dst, int max) throws InterruptedException {
+        int count = 0;
+        Integer element;
+        while (count < max && (element = returned.poll()) != null) {
+            dst[count++] = element; // Still counted in flight from when they were first drained
+        }
+        if (count > 0) {
+            return count;
+        }
+        inFlight.addAndGet(max); // Reserved before draining
+        try {
+            count = buffer.drainTo(dst, max);
+        } finally {
+            inFlight.addAndGet(count - max); // Release the part of the reservation not drained
+        }
+        return count;
+    }
+
+    /**
+     * Hands back elements a subscription took but did not deliver, and offers them to the other subscriptions -
+     * They stay counted in flight until delivered
+     * @param src Array holding the elements
+     * @param off Index in src of the first element handed back
+     * @param len Number of elements handed back
+     */
+    private void handBack(int[] src, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            returned.add(src[i]);
+        }
+        signalAll();
+    }
+
+    /**
+     * Gets whether there are elements waiting to be taken, on the buffer or handed back
+     * @return True if an element can be taken; False otherwise
+     */
+    private boolean hasElements() {
+        return !returned.isEmpty() || buffer.getNumElementsInBuffer() > 0;
+    }
+
+    /**
+     * Gets whether the stream has ended - the buffer is closed and empty and every element drained from it has been
+     * delivered. The buffer is read before the count in flight, so an element a subscription is draining is seen in
+     * one or the other
+     * @return True if subscriptions should complete; False otherwise
+     */
+    private boolean isDrained() {
+        return buffer.isClosed() && buffer.getNumElementsInBuffer() == 0 && inFlight.get() == 0;
+    }
+
+    /**
+     * Checks every subscription for work, such as elements handed back or the end of the stream
+     */
+    private void signalAll() {
+        for (BufferSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    /**
+     * Records that a subscription has ended, releasing the end of the run once none are left
+     */
+    private synchronized void subscriptionEnded() {
+        if (--activeSubscriptions == 0) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents whether a buffer was last seen full or empty, and how long it has spent in each state -
+ * Each state is stored as the time it was entered, so a single compare-and-set both flips the state and hands the
+ * timing of the period to exactly one thread
+ * @author Alex Harlock
+ */
+public class BufferStatus {
+
+    private static final long CLEAR = Long.MIN_VALUE; // Stored while the buffer is not in the state
+
+    private final AtomicLong fullSince = new AtomicLong(CLEAR);  // Time the buffer was found full, or CLEAR
+    private final AtomicLong emptySince = new AtomicLong(CLEAR); // Time the buffer was found empty, or CLEAR
+    private final AtomicLong nanosFull = new AtomicLong();       // Total time spent full in finished periods
+    private final AtomicLong nanosEmpty = new AtomicLong();      // Total time spent empty in finished periods
+    private final AtomicLong timesFull = new AtomicLong();       // Number of times the buffer became full
+    private final AtomicLong timesEmpty = new AtomicLong();      // Number of times the buffer became empty
+
+    /**
+     * Sets whether the buffer is currently full
+     * @param full True if the buffer is full; False otherwise
+     * @return True if this call changed the state; False if the buffer was already in it
+     */
+    public boolean updateFull(boolean full) {
+        return update("full", TraceRecorder.FULL, fullSince, nanosFull, timesFull, full);
+    }
+
+    /**
+     * Sets whether the buffer is currently empty
+     * @param empty True if the buffer is empty; False otherwise
+     * @return True if this call changed the state; False if the buffer was already in it
+     */
+    public boolean updateEmpty(boolean empty) {
+        return update("empty", TraceRecorder.EMPTY, emptySince, nanosEmpty, timesEmpty, empty);
+    }
+
+    /**
+     * Gets whether the buffer is currently full
+     * @return True if buffer is full; False otherwise
+     */
+    public boolean isFull() {
+        return fullSince.get() != CLEAR;
+    }
+
+    /**
+     * Gets whether the buffer is currently empty
+     * @return True if buffer is empty; False otherwise
+     */
+    public boolean isEmpty() {
+        return emptySince.get() != CLEAR;
+    }
+
+    /**
+     * Gets the total time the buffer has spent full
+     * @param now The current System.nanoTime(), which ends a period still in progress
+     * @return The time in nanoseconds
+     */
+    public long getNanosFull(long now) {
+        return total(fullSince, nanosFull, now);
+    }
+
+    /**
+     * Gets the total time the buffer has spent empty
+     * @param now The current System.nanoTime(), which ends a period still in progress
+     * @return The time in nanoseconds
+     */
+    public long getNanosEmpty(long now) {
+        return total(emptySince, nanosEmpty, now);
+    }
+
+    /**
+     * Gets the number of times the buffer has become full
+     * @return The number of transitions into the full state
+     */
+    public long getTimesFull() {
+        return timesFull.get();
+    }
+
+    /**
+     * Gets the number of times the buffer has become empty
+     * @return The number of transitions into the empty state
+     */
+    public long getTimesEmpty() {
+        return timesEmpty.get();
+    }
+
+    /**
+     * Enters or leaves a state - Reading before the compare-and-set keeps the common case, where the state is
+     * unchanged, to a single read without a clock call. Every change is emitted as a flight recorder event and traced
+     * @param state The name of the state, "full" or "empty"
+     * @param op The trace op for entering the state, whose successor is the op for leaving it
+     * @param since The time the state was entered, or CLEAR
+     * @param total The total time spent in the state in finished periods
+     * @param times The number of times the state has been entered
+     * @param enter True to enter the state; False to leave it
+     * @return True if this call changed the state; False otherwise
+     */
+    private static boolean update(String state, int op, AtomicLong since, AtomicLong total, AtomicLong times, boolean enter) {
+        long entered = since.get();
+        if (enter) {
+            if (entered == CLEAR && since.compareAndSet(CLEAR, System.nanoTime())) {
+                times.incrementAndGet();
+                FlightEvents.bufferState(state, true, 0);
+                TraceRecorder.record(op, 0, -1, 0);
+                return true;
+            }
+        }
+        else if (entered != CLEAR && since.compareAndSet(entered, CLEAR)) {
+            long period = System.nanoTime() - entered;
+            total.addAndGet(period);
+            FlightEvents.bufferState(state, false, period);
+            TraceRecorder.record(op + 1, 0, -1, 0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the time spent in a state, including a period still in progress
+     * @param since The time the state was entered, or CLEAR
+     * @param total The total time spent in the state in finished periods
+     * @param now The current System.nanoTime()
+     * @return The time in nanoseconds
+     */
+    private static long total(AtomicLong since, AtomicLong total, long now) {
+        long entered = since.get();
+        return total.get() + ((entered == CLEAR) ? 0 : Math.max(0, now - entered));
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * This class represents a pool of Servers which grows and shrinks with the buffer's occupancy - A controller samples
+ * the number of elements in the buffer and its full/empty transitions at a fixed interval. After enough consecutive
+ * samples above the scale-up mark, or with the buffer found full, it starts another Server; after enough consecutive
+ * samples below the scale-down mark, or with the buffer found empty, it retires the newest Server. The gap between
+ * the two marks and the run of samples needed give hysteresis, and a cooldown after every change stops the pool
+ * thrashing. The controller stops once the buffer is closed, leaving the Servers running to drain it
+ * @author Alex Harlock
+ */
+public class ElasticServerPool implements Runnable
+{
+    private static final int UP_SAMPLES = 3;    // Consecutive high samples needed to start a Server
+    private static final int DOWN_SAMPLES = 10; // Consecutive low samples needed to retire a Server
+
+    private final BufferEngine buffer;          // Buffer the Servers remove from
+    private final IntFunction<Server> factory;  // Creates a retirable Server from its index
+    private final int minServers;               // Fewest Servers kept running
+    private final int maxServers;               // Most Servers running at once
+    private final long sampleMillis;            // Time between samples
+    private final double scaleUpAt;             // Occupancy, as a fraction of capacity, counted as high
+    private final double scaleDownAt;           // Occupancy, as a fraction of capacity, counted as low
+    private final long cooldownNanos;           // Least time between two changes to the pool size
+    private final List<Server> servers = new ArrayList<>();      // Every Server started, guarded by this
+    private final List<Server> active = new ArrayList<>();       // Servers not yet retired, oldest first, guarded by this
+    private final List<Future<?>> running = new ArrayList<>();   // Completion of every Server started, guarded by this
+    private final List<String> timeline = new ArrayList<>();     // One line per change to the pool size
+    private ExecutorService executor;           // Executor the Servers are run on
+    private long startNanos;                    // System.nanoTime() at which the pool was started
+    private long lastChangeNanos;               // System.nanoTime() of the last change to the pool size
+    private long weightedServerNanos;           // Sum over time of the pool size, for its time-weighted mean
+    private long lastSampleNanos;               // System.nanoTime() of the previous sample
+    private int peakServers;                    // Most Servers running at once
+
+    /**
+     * A pool of Servers sized between the given bounds
+     * @param buffer Buffer the Servers remove from
+     * @param factory Creates a retirable Server from its index, counting from 0
+     * @param minServers Fewest Servers kept running, and the number started with
+     * @param maxServers Most Servers running at once
+     * @param sampleMillis Time between samples of the buffer
+     * @param scaleUpAt Occupancy, as a fraction of the buffer capacity, above which a sample counts as high
+     * @param scaleDownAt Occupancy, as a fraction of the buffer capacity, below which a sample counts as low
+     * @param cooldownMillis Least time between two changes to the pool size
+     */
+    public ElasticServerPool(BufferEngine buffer, IntFunction<Server> factory, int minServers, int maxServers,
+                             long sampleMillis, double scaleUpAt, double scaleDownAt, long cooldownMillis) {
+        if (minServers < 1 || maxServers < minServers || scaleDownAt >= scaleUpAt) {
+            throw new IllegalArgumentException("Need 1 <= min <= max servers and a scale-down mark below the scale-up mark");
+        }
+        this.buffer = buffer;
+        this.factory = factory;
+        this.minServers = minServers;
+        this.maxServers = maxServers;
+        this.sampleMillis = Math.max(1, sampleMillis);
+        this.scaleUpAt = scaleUpAt;
+        this.scaleDownAt = scaleDownAt;
+        this.cooldownNanos = cooldownMillis * 1_000_000L;
+    }
+
+    /**
+     * Starts the minimum number of Servers
+     * @param executor Executor the Servers, and the controller, are run on
+     * @return The controller's completion - Once it completes, no more Servers are started
+     */
+    public Future<?> start(ExecutorService executor) {
+        this.executor = executor;
+        startNanos = System.nanoTime();
+        lastChangeNanos = startNanos;
+        lastSampleNanos = startNanos;
+        for (int i = 0; i < minServers; i++) {
+            addServer("start");
+        }
+        return executor.submit(this);
+    }
+
+    /**
+     * Samples the buffer until it is closed, starting and retiring Servers as its occupancy changes
+     */
+    @Override
+    public void run() {
+        BufferStatus status = buffer.getStatus();
+        long timesFull = status.getTimesFull();
+        long timesEmpty = status.getTimesEmpty();
+        int high = 0;
+        int low = 0;
+        try {
+            while (!buffer.isClosed()) {
+                WaitQueue.park(this, sampleMillis * 1_000_000L);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long now = System.nanoTime();
+                double occupancy = (double) buffer.getNumElementsInBuffer() / buffer.getBufferCapacity();
+                boolean foundFull = status.isFull() || status.getTimesFull() != timesFull;
+                boolean foundEmpty = status.isEmpty() || status.getTimesEmpty() != timesEmpty;
+                timesFull = status.getTimesFull();
+                timesEmpty = status.getTimesEmpty();
+                high = (occupancy >= scaleUpAt || foundFull) ? high + 1 : 0;
+                low = (occupancy <= scaleDownAt || (foundEmpty && !foundFull)) ? low + 1 : 0;
+                synchronized (this) {
+                    weightedServerNanos += active.size() * (now - lastSampleNanos);
+                    lastSampleNanos = now;
+                    if (now - lastChangeNanos < cooldownNanos) {
+                        continue;
+                    }
+                    if (high >= UP_SAMPLES && active.size() < maxServers) {
+                        addServer(String.format("occupancy %.0f%%%s", 100 * occupancy, foundFull ? ", found full" : ""));
+                        high = 0;
+                    }
+                    else if (low >= DOWN_SAMPLES && active.size() > minServers) {
+                        retireServer(String.format("occupancy %.0f%%%s", 100 * occupancy, foundEmpty ? ", found empty" : ""));
+                        low = 0;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            weightedServerNanos += active.size() * (now - lastSampleNanos);
+            lastSampleNanos = now;
+            timeline.add(String.format("%9.1fms %3d servers (buffer closed, draining)", (now - startNanos) / 1e6, active.size()));
+        }
+    }
+
+    /**
+     * Starts another Server and records the change in the timeline
+     * @param reason Why the Server was started
+     */
+    private synchronized void addServer(String reason) {
+        Server server = factory.apply(servers.size());
+        servers.add(server);
+        active.add(server);
+        running.add(executor.submit(server));
+        peakServers = Math.max(peakServers, active.size());
+        recordChange("+", reason);
+    }
+
+    /**
+     * Retires the newest Server and records the change in the timeline
+     * @param reason Why the Server was retired
+     */
+    private synchronized void retireServer(String reason) {
+        active.remove(active.size() - 1).retire();
+        recordChange("-", reason);
+    }
+
+    /**
+     * Records a change to the pool size in the timeline
+     * @param sign "+" for a Server started, "-" for one retired
+     * @param reason Why the pool size changed
+     */
+    private void recordChange(String sign, String reason) {
+        lastChangeNanos = System.nanoTime();
+        timeline.add(String.format("%9.1fms %3d servers (%s1, %s)", (lastChangeNanos - startNanos) / 1e6,
+                active.size(), sign, reason));
+    }
+
+    /**
+     * Waits for every Server started to complete - Called once the controller has completed
+     */
+    public void awaitServers() throws InterruptedException {
+        List<Future<?>> started;
+        synchronized (this) {
+            started = new ArrayList<>(running);
+        }
+        for (Future<?> server : started) {
+            try {
+                server.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Gets every Server the pool started, including those since retired
+     * @return The Servers, in the order they were started
+     */
+    public synchronized List<Server> getServers() {
+        return new ArrayList<>(servers);
+    }
+
+    /**
+     * Displays the timeline of the pool size, its peak and its time-weighted mean while the buffer was open
+     */
+    public synchronized void displaySummary() {
+        double seconds = (lastSampleNanos - startNanos) / 1e9;
+        System.out.println(String.format("Elastic servers (%d to %d, scale up at %.0f%%, down at %.0f%%): "
+                        + "%d started, peak %d, mean %.2f while users were adding", minServers, maxServers,
+                100 * scaleUpAt, 100 * scaleDownAt, servers.size(), peakServers,
+                (seconds > 0) ? weightedServerNanos / 1e9 / seconds : minServers));
+        for (String change : timeline) {
+            System.out.println(change);
+        }
+    }
+
+    /**
+     * Gets the most Servers the pool will run at once
+     * @return The maximum number of Servers
+     */
+    public int getMaxServers() {
+        return maxServers;
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents the processing applied to the elements Servers remove - Either each Server processes its
+ * own elements before removing more, or it hands every batch to a shared ForkJoinPool, which splits the batch across
+ * its workers while the Server goes back to draining the buffer. A bound on the batches in flight stops Servers
+ * racing ahead of the pool, so a slow pool still backs up into the buffer. The pool never grows past its
+ * parallelism, so SLEEP processing holds a pool thread for the whole wait, as a thread blocked on I/O would
+ * @author Alex Harlock
+ */
+public class ElementProcessor {
+
+    private static final int SPLIT_THRESHOLD = 16; // Largest part of a batch processed without splitting further
+
+    private final Processing processing;   // The work done with each element
+    private final int cost;                // Rounds of hashing, or microseconds of waiting, per element
+    private final ForkJoinPool pool;       // Pool processing batches in parallel, or null to process on the Server
+    private final MySemaphore inFlight;    // One permit per batch that may be waiting in or running on the pool
+    private final LongAdder numProcessed = new LongAdder(); // Number of elements processed
+    private final LongAdder checksum = new LongAdder();     // Sum of every processed value, so the work is kept
+
+    /**
+     * A part of a batch of elements, processed on the pool
+     */
+    private final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // Version of the serialized form
+        private final int[] elements; // The batch
+        private final int from;       // Index of the first element of this part
+        private final int to;         // Index one past the last element of this part
+        private final boolean root;   // True for the whole batch, which returns its in-flight permit when done
+
+        Batch(int[] elements, int from, int to, boolean root) {
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (to - from <= SPLIT_THRESHOLD) {
+                    processRange(elements, from, to);
+                }
+                else {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Batch(elements, from, middle, false), new Batch(elements, middle, to, false));
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                if (root) {
+                    inFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * A processor running the given work on the Server threads, or on a pool of its own
+     * @param processing The work done with each element
+     * @param cost Rounds of hashing for HASH, or microseconds of waiting for SLEEP
+     * @param parallelism The number of pool threads, or 0 to process on the Server threads
+     * @param maxInFlight In parallel mode, the most batches that can be handed to the pool and not yet finished
+     */
+    public ElementProcessor(Processing processing, int cost, int parallelism, int maxInFlight) {
+        this.processing = processing;
+        this.cost = cost;
+        // Bounded at parallelism threads, so a batch waiting on a join never adds a compensating thread
+        this.pool = (parallelism > 0) ? new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, false, parallelism, parallelism, 1, p -> true, 60, TimeUnit.SECONDS) : null;
+        this.inFlight = new MySemaphore(Math.max(1, maxInFlight), false);
+    }
+
+    /**
+     * Gets whether Servers need the values of the elements they remove
+     * @return True unless elements are simply discarded
+     */
+    public boolean needsElements() {
+        return processing != Processing.NONE;
+    }
+
+    /**
+     * Processes a batch of removed elements - In parallel mode the batch is copied and handed to the pool, waiting
+     * first if too many batches are already in flight
+     * @param elements Array holding the elements, from index 0
+     * @param count The number of elements
+     */
+    public void process(int[] elements, int count) throws InterruptedException {
+        if (processing == Processing.NONE || count == 0) {
+            return;
+        }
+        if (pool == null) {
+            processRange(elements, 0, count);
+            return;
+        }
+        inFlight.acquire(); // Sleep until the pool has finished an earlier batch
+        pool.execute(new Batch(Arrays.copyOf(elements, count), 0, count, true));
+    }
+
+    /**
+     * Waits for every batch handed to the pool to be processed and shuts the pool down - Called once every Server
+     * has finished
+     */
+    public void finish() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Batches still running
+            }
+        }
+    }
+
+    /**
+     * Displays the processing used and the number of elements processed
+     */
+    public void displaySummary() {
+        if (processing == Processing.NONE) {
+            return;
+        }
+        System.out.println("Processing " + processing + " (cost " + cost + ") "
+                + ((pool == null) ? "on the consumers" : "on a pool of " + pool.getParallelism() + " threads")
+                + ": processed " + numProcessed.sum() + " elements, checksum " + checksum.sum());
+    }
+
+    /**
+     * Processes part of a batch on the current thread
+     * @param elements Array holding the elements
+     * @param from Index of the first element to process
+     * @param to Index one past the last element to process
+     */
+    private void processRange(int[] elements, int from, int to) throws InterruptedException {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += processing.process(elements[i], cost);
+        }
+        checksum.add(sum);
+        numProcessed.add(to - from);
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class represents the log of buffer events (adds, removes, full and empty) -
+ * Events are packed into longs and queued in a preallocated ring, and a dedicated writer thread formats and
+ * prints them in batches, so Users and Servers never wait on console output
+ * @author Alex Harlock
+ */
+public final class EventLog {
+
+    /**
+     * How much of the event stream is logged
+     */
+    public enum Mode {
+        OFF,     // Nothing is logged
+        SAMPLED, // One in every sampleRate events is logged
+        FULL     // Every event is logged
+    }
+
+    private static final int USER_ADD = 0;       // A User added an element
+    private static final int SERVER_REMOVE = 1;  // A Server removed an element
+    private static final int BUFFER_FULL = 2;    // The buffer became full
+    private static final int BUFFER_EMPTY = 3;   // The buffer became empty
+    private static final int QUEUE_SIZE = 1 << 16;      // Number of events the queue can hold
+    private static final long WRITER_PARK_NANOS = 1_000_000L; // How long the writer sleeps when the queue is empty
+
+    private static volatile Mode mode = Mode.OFF;    // Current logging mode
+    private static int sampleRate = 1;               // In SAMPLED mode, one in every sampleRate events is logged
+    private static int bufferCapacity;               // Capacity of the buffer, shown alongside its occupancy
+    private static volatile EventLog log;            // Queue and writer for the current run, null when OFF
+
+    private final long[] events = new long[QUEUE_SIZE];              // Packed events waiting to be written
+    private final AtomicLongArray sequences = new AtomicLongArray(QUEUE_SIZE); // Per slot write/read position
+    private final AtomicLong tail = new AtomicLong();                // Position of the next event to be queued
+    private long head = 0;                                           // Position of the next event to be written
+    private final Thread writerThread;                               // Thread printing the queued events
+    private volatile boolean running = true;                         // False once the log has been stopped
+    private final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+
+    /**
+     * Creates the queue and starts the writer thread
+     */
+    private EventLog() {
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            sequences.set(i, i);
+        }
+        writerThread = new Thread(this::writeEvents, "EventLog writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Starts logging for a run
+     * @param newMode How much of the event stream to log
+     * @param newSampleRate In SAMPLED mode, one in every newSampleRate events is logged
+     * @param capacity Capacity of the buffer being logged
+     */
+    public static synchronized void start(Mode newMode, int newSampleRate, int capacity) {
+        stop();
+        sampleRate = Math.max(1, newSampleRate);
+        bufferCapacity = capacity;
+        if (newMode != Mode.OFF) {
+            log = new EventLog();
+        }
+        mode = newMode;
+    }
+
+    /**
+     * Stops logging, waiting for every queued event to be written
+     */
+    public static synchronized void stop() {
+        mode = Mode.OFF;
+        if (log != null) {
+            log.shutdown();
+            log = null;
+        }
+    }
+
+    /**
+     * Gets whether add and remove events are currently logged at all -
+     * Callers should check this before doing any work to describe an event
+     * @return True if logging is on; False otherwise
+     */
+    public static boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    /**
+     * Logs that a User added an element
+     * @param userId The Users id
+     * @param numElementsInBuffer The number of elements in the buffer after the add
+     */
+    public static void userAdded(long userId, int numElementsInBuffer) {
+        EventLog current = log;
+        if (current != null && sampled()) {
+            current.queue(USER_ADD, userId, numElementsInBuffer);
+        }
+    }
+
+    /**
+     * Logs that a Server removed an element
+     * @param serverId The Servers id
+     * @param numElementsInBuffer The number of elements in the buffer after the remove
+     */
+    public static void serverRemoved(long serverId, int numElementsInBuffer) {
+        EventLog current = log;
+        if (current != null && sampled()) {
+            current.queue(SERVER_REMOVE, serverId, numElementsInBuffer);
+        }
+    }
+
+    /**
+     * Logs that the buffer has become full
+     */
+    public static void bufferFull() {
+        EventLog current = log;
+        if (current != null && sampled()) {
+            current.queue(BUFFER_FULL, 0, bufferCapacity);
+        }
+    }
+
+    /**
+     * Logs that the buffer has become empty
+     */
+    public static void bufferEmpty() {
+        EventLog current = log;
+        if (current != null && sampled()) {
+            current.queue(BUFFER_EMPTY, 0, 0);
+        }
+    }
+
+    /**
+     * Decides whether an event should be logged in the current mode
+     * @return True if the event should be logged; False otherwise
+     */
+    private static boolean sampled() {
+        Mode current = mode;
+        if (current == Mode.FULL) {
+            return true;
+        }
+        return current == Mode.SAMPLED && ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    /**
+     * Packs an event into the queue, waiting for the writer if the queue is full
+     * @param type The type of event
+     * @param id The id of the User/Server the event belongs to
+     * @param numElementsInBuffer The number of elements in the buffer
+     */
+    private void queue(int type, long id, int numElementsInBuffer) {
+        long event = ((long) type << 60) | ((id & 0x0FFFFFFFL) << 32) | (numElementsInBuffer & 0xFFFFFFFFL);
+        long position = tail.getAndIncrement();
+        int index = (int) (position & (QUEUE_SIZE - 1));
+        while (sequences.get(index) != position) {
+            Thread.yield(); // Writer is a full lap behind
+        }
+        events[index] = event;
+        sequences.set(index, position + 1);
+    }
+
+    /**
+     * Writes queued events until the log is stopped, flushing once per batch of events
+     */
+    private void writeEvents() {
+        try {
+            while (running) {
+                if (writeBatch() == 0) {
+                    LockSupport.parkNanos(WRITER_PARK_NANOS);
+                }
+            }
+            while (writeBatch() > 0) {
+                // Write anything queued before the log was stopped
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes every event that is ready to be written
+     * @return The number of events written
+     */
+    private int writeBatch() throws IOException {
+        int written = 0;
+        while (true) {
+            int index = (int) (head & (QUEUE_SIZE - 1));
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            write(events[index]);
+            sequences.set(index, head + QUEUE_SIZE);
+            head++;
+            written++;
+        }
+        if (written > 0) {
+            out.flush();
+        }
+        return written;
+    }
+
+    /**
+     * Formats a single event
+     * @param event The packed event
+     */
+    private void write(long event) throws IOException {
+        int type = (int) (event >>> 60);
+        long id = (event >>> 32) & 0x0FFFFFFFL;
+        int numElementsInBuffer = (int) event;
+        switch (type) {
+            case USER_ADD:
+                out.write("User " + id + " adds an element " + numElementsInBuffer + "/" + bufferCapacity + "\n");
+                break;
+            case SERVER_REMOVE:
+                out.write("Server " + id + " removed element " + numElementsInBuffer + "/" + bufferCapacity + "\n");
+                break;
+            case BUFFER_FULL:
+                out.write("Buffer full - User now sleeping\n");
+                break;
+            case BUFFER_EMPTY:
+            default:
+                out.write("Buffer empty - web server wait\n");
+                break;
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has written every queued event
+     */
+    private void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This enum represents the ways User and Server tasks can be run - Every User and Server task runs for the whole
+ * simulation and parks its thread while the buffer is full or empty, so in POOL mode each one holds a pool thread
+ * until it finishes and a pool never runs more tasks than it has threads. A pool with fewer threads than tasks would
+ * leave some tasks queued behind ones that are waiting on them, so such a run is refused rather than deadlocked.
+ * Runs with tens of thousands of Users and Servers need VIRTUAL mode, whose threads cost little while parked
+ * @author Alex Harlock
+ */
+public enum ExecutionMode {
+
+    DEDICATED, // One platform thread per User/Server
+    POOL,      // A fixed size pool of platform threads shared by every User/Server
+    VIRTUAL;   // One virtual thread per User/Server (Java 21 or later)
+
+    /**
+     * Creates an executor to run User and Server tasks in this mode
+     * @param poolSize The number of platform threads in POOL mode, or 0 for one per task - ignored in other modes
+     * @param numTasks The number of long-running tasks that will be submitted, which POOL mode needs a thread for each of
+     * @return A new executor, which the caller must shut down
+     * @throws IllegalArgumentException In POOL mode, if the pool is given fewer threads than there are tasks
+     */
+    public ExecutorService newExecutor(int poolSize, int numTasks) {
+        switch (this) {
+            case POOL:
+                int threads = (poolSize > 0) ? poolSize : numTasks;
+                if (numTasks > threads) {
+                    throw new IllegalArgumentException("A pool of " + threads + " threads cannot run " + numTasks
+                            + " users, servers and workers that each run until the end - set pool.size to at least "
+                            + numTasks + ", or leave it unset");
+                }
+                return Executors.newFixedThreadPool(Math.max(1, threads)); // Never grows past its starting size
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor();
+            case DEDICATED:
+            default:
+                return Executors.newCachedThreadPool(); // Every task runs for the whole simulation, so none share
+        }
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task -
+     * Looked up reflectively so the program still builds and runs in the other modes on Java versions before 21
+     * @return A new virtual thread executor
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * Gets the execution mode with the given name, ignoring case
+     * @param name The name of the execution mode, e.g. "virtual"
+     * @return The matching execution mode
+     */
+    public static ExecutionMode fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * This class represents the JDK Flight Recorder events the program emits - Semaphore waits, buffer adds/removes,
+ * buffer full/empty transitions and the lifetime of each User and Server. The "jfr" setting, e.g.
+ * -Dcw.jfr=run.jfr, records the whole run and dumps it to the given file for JDK Mission Control.
+ * Events are only created while a recording started here is running, so without one the event classes are never
+ * even loaded - loading them registers them with the recorder, which takes hundreds of milliseconds. Adds and
+ * removes are too frequent to record every one: an operation is recorded if it took at least jfr.threshold
+ * microseconds, and otherwise one in every jfr.sample operations is
+ * @author Alex Harlock
+ */
+public final class FlightEvents {
+
+    private static volatile boolean recording = false; // True while a recording started here is running
+    private static long thresholdNanos;                 // Adds/removes taking at least this long are always recorded
+    private static int sampleRate;                      // One in every sampleRate faster adds/removes is recorded
+
+    private FlightEvents() {
+    }
+
+    /**
+     * A thread queued in a MySemaphore waiting for permits - the lock around a buffer or its space/element counts
+     */
+    @Name("threadingcw.SemaphoreWait")
+    @Label("Semaphore Wait")
+    @Category("ThreadingCW")
+    @Description("Time a thread spent queued in MySemaphore for permits")
+    static final class SemaphoreWait extends Event {
+        @Label("Permits")
+        int permits;           // Number of permits waited for
+
+        @Label("Queue Length")
+        int queueLength;       // Number of threads queued, including this one, when the wait began
+
+        @Label("Fair")
+        boolean fair;          // True if the semaphore hands out permits in strict FIFO order
+
+        @Label("Acquired")
+        boolean acquired;      // False if the wait timed out or was interrupted
+    }
+
+    /**
+     * An add or remove by a User or Server
+     */
+    @Name("threadingcw.BufferOperation")
+    @Label("Buffer Operation")
+    @Category("ThreadingCW")
+    @Description("A User add or Server remove, with the buffer occupancy it left")
+    @StackTrace(false)
+    static final class BufferOperation extends Event {
+        @Label("Operation")
+        String operation;      // "add" or "remove"
+
+        @Label("Worker Id")
+        long workerId;         // Id of the User or Server
+
+        @Label("Elements")
+        int count;             // Number of elements moved
+
+        @Label("Occupancy")
+        int occupancy;         // Number of elements in the buffer afterwards
+
+        @Label("Capacity")
+        int capacity;          // Maximum number of elements in the buffer
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;          // Time the operation took, including any wait
+    }
+
+    /**
+     * The buffer becoming full or empty, or leaving that state
+     */
+    @Name("threadingcw.BufferState")
+    @Label("Buffer State")
+    @Category("ThreadingCW")
+    @Description("The buffer entering or leaving the full or empty state")
+    @StackTrace(false)
+    static final class BufferState extends Event {
+        @Label("State")
+        String state;          // "full" or "empty"
+
+        @Label("Entered")
+        boolean entered;       // True on entering the state, false on leaving it
+
+        @Label("Time In State")
+        @Timespan(Timespan.NANOSECONDS)
+        long timeInState;      // On leaving the state, how long the buffer was in it
+    }
+
+    /**
+     * The run of a User or Server, from starting to finishing
+     */
+    @Name("threadingcw.Worker")
+    @Label("Worker")
+    @Category("ThreadingCW")
+    @Description("A User or Server running, from starting to finishing")
+    @StackTrace(false)
+    static final class Worker extends Event {
+        @Label("Role")
+        String role;           // "user" or "server"
+
+        @Label("Worker Id")
+        long workerId;         // Id of the User or Server
+
+        @Label("Elements")
+        long elements;         // Number of elements added or removed
+
+        @Label("Outcome")
+        String outcome;        // How the worker finished, e.g. "completed", "closed", "retired" or "interrupted"
+    }
+
+    /**
+     * Starts timing a wait for semaphore permits, if a recording is running
+     * @return The event to pass to endSemaphoreWait(), or null if nothing is being recorded
+     */
+    public static SemaphoreWait beginSemaphoreWait() {
+        if (!recording) {
+            return null;
+        }
+        SemaphoreWait event = new SemaphoreWait();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Emits a wait for semaphore permits
+     * @param event The event from beginSemaphoreWait(), or null
+     * @param permits Number of permits waited for
+     * @param queueLength Number of threads queued, including this one, when the wait began
+     * @param fair True if the semaphore hands out permits in strict FIFO order
+     * @param acquired False if the wait timed out or was interrupted
+     */
+    public static void endSemaphoreWait(SemaphoreWait event, int permits, int queueLength, boolean fair,
+                                        boolean acquired) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.permits = permits;
+            event.queueLength = queueLength;
+            event.fair = fair;
+            event.acquired = acquired;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a User or Server's run, if a recording is running
+     * @return The event to pass to endWorker(), or null if nothing is being recorded
+     */
+    public static Worker beginWorker() {
+        if (!recording) {
+            return null;
+        }
+        Worker event = new Worker();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Emits a User or Server's run
+     * @param event The event from beginWorker(), or null
+     * @param role "user" or "server"
+     * @param workerId Id of the User or Server
+     * @param elements Number of elements added or removed
+     * @param outcome How the worker finished, e.g. "completed"
+     */
+    public static void endWorker(Worker event, String role, long workerId, long elements, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.role = role;
+            event.workerId = workerId;
+            event.elements = elements;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /**
+     * Emits an add or remove event, if a recording is running and the operation was slow or is sampled
+     * @param operation "add" or "remove"
+     * @param workerId Id of the User or Server
+     * @param count Number of elements moved
+     * @param buffer The buffer, read for its occupancy and capacity only if the event is recorded
+     * @param latency Time the operation took in nanoseconds, including any wait
+     */
+    public static void bufferOperation(String operation, long workerId, int count, BufferEngine buffer, long latency) {
+        if (!recording || (latency < thresholdNanos && ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+            return;
+        }
+        BufferOperation event = new BufferOperation();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.workerId = workerId;
+            event.count = count;
+            event.occupancy = buffer.getNumElementsInBuffer();
+            event.capacity = buffer.getBufferCapacity();
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Emits a full/empty transition event, if a recording wants it
+     * @param state "full" or "empty"
+     * @param entered True on entering the state; False on leaving it
+     * @param timeInState On leaving the state, how long the buffer was in it in nanoseconds
+     */
+    public static void bufferState(String state, boolean entered, long timeInState) {
+        if (!recording) {
+            return;
+        }
+        BufferState event = new BufferState();
+        if (event.shouldCommit()) {
+            event.state = state;
+            event.entered = entered;
+            event.timeInState = timeInState;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts recording the run if the "jfr" setting names a file, e.g. -Dcw.jfr=run.jfr -Dcw.jfr.threshold=100
+     * -Dcw.jfr.sample=1000 - The JDK's default settings are used, so CPU, allocation and GC show alongside the
+     * program's own events
+     * @return The running recording, or null if the setting is absent
+     */
+    public static Recording startRecording() throws IOException {
+        if (Settings.getString("jfr", null) == null) {
+            return null;
+        }
+        thresholdNanos = Settings.getInt("jfr.threshold", 100) * 1_000L;
+        sampleRate = Math.max(1, Settings.getInt("jfr.sample", 1000));
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (ParseException e) {
+            throw new IOException("Cannot read the default JFR settings", e);
+        }
+        recording.setName("ThreadingCW");
+        recording.enable(SemaphoreWait.class).withStackTrace();
+        recording.enable(BufferOperation.class);
+        recording.enable(BufferState.class);
+        recording.enable(Worker.class);
+        recording.start();
+        new SemaphoreWait(); // Registers the event classes now rather than in the middle of the first timed run
+        new BufferOperation();
+        new BufferState();
+        new Worker();
+        FlightEvents.recording = true;
+        return recording;
+    }
+
+    /**
+     * Stops a recording and dumps it to the file named by the "jfr" setting
+     * @param recording The recording from startRecording(), or null
+     */
+    public static void stopRecording(Recording recording) throws IOException {
+        if (recording == null) {
+            return;
+        }
+        String file = Settings.getString("jfr", null);
+        FlightEvents.recording = false;
+        recording.stop();
+        recording.dump(Paths.get(file));
+        recording.close();
+        System.out.println("Flight recording written to " + file);
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * This class represents a server consuming elements pushed by a BufferPublisher rather than removing them itself -
+ * It asks for requestSize elements up front and tops its demand back up once half of it has been delivered, so the
+ * publisher always has demand to serve without the server ever holding more than requestSize outstanding
+ * @author Alex Harlock
+ */
+public class FlowServer implements Flow.Subscriber<Integer>
+{
+    private final int id;                   // Id corresponding to the Servers number
+    private final int requestSize;          // Most elements the Server has requested but not yet received
+    private final CountDownLatch done = new CountDownLatch(1); // Released once the stream completes or fails
+    private Flow.Subscription subscription; // The Server's subscription to the publisher
+    private long outstanding = 0;           // Elements requested but not yet received
+    private long elementsRemoved = 0;       // Number of elements the Server has received
+    private long requests = 0;              // Number of request(n) calls made
+    private long startNanos = 0;            // System.nanoTime() at which the Server subscribed
+    private long finishNanos = 0;           // System.nanoTime() at which the stream completed
+
+    /**
+     * A Server consuming pushed elements, with a bounded demand
+     * @param id          Servers id corresponding to its number
+     * @param requestSize Most elements to have requested but not yet received
+     */
+    public FlowServer(int id, int requestSize) {
+        this.id = id + 1;
+        this.requestSize = Math.max(1, requestSize);
+    }
+
+    /**
+     * Requests the first elements
+     * @param subscription The subscription to the publisher
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        startNanos = System.nanoTime();
+        request(requestSize);
+    }
+
+    /**
+     * Receives an element, topping the demand back up once half of it has been delivered
+     * @param element The element, which is only counted
+     */
+    @Override
+    public void onNext(Integer element) {
+        elementsRemoved++;
+        if (--outstanding <= requestSize / 2) {
+            request(requestSize - outstanding);
+        }
+    }
+
+    /**
+     * Records that the stream ended with an error
+     * @param throwable The error
+     */
+    @Override
+    public void onError(Throwable throwable) {
+        throwable.printStackTrace();
+        finish();
+    }
+
+    /**
+     * Records that the buffer has been closed and drained
+     */
+    @Override
+    public void onComplete() {
+        finish();
+    }
+
+    /**
+     * Waits until the stream has completed or failed
+     */
+    public void awaitCompletion() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * Signals further demand to the publisher
+     * @param n The number of further elements wanted
+     */
+    private void request(long n) {
+        outstanding += n;
+        requests++;
+        subscription.request(n);
+    }
+
+    /**
+     * Records the end of the stream and releases anyone waiting for it
+     */
+    private void finish() {
+        if (done.getCount() > 0) {
+            finishNanos = System.nanoTime();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Gets the number of elements the Server has received
+     * @return The number of elements received
+     */
+    public long getNumElementsRemoved() {
+        return elementsRemoved;
+    }
+
+    /**
+     * Gets the mean number of elements asked for by each request(n)
+     * @return Elements requested per request
+     */
+    public double getAverageRequestSize() {
+        return (requests == 0) ? 0 : (double) (elementsRemoved + outstanding) / requests;
+    }
+
+    /**
+     * Gets the Server's throughput
+     * @return Elements received per second, from subscribing to the stream completing
+     */
+    public double getElementsPerSecond() {
+        return (finishNanos > startNanos) ? elementsRemoved / ((finishNanos - startNanos) / 1e9) : 0;
+    }
+
+    /**
+     * Gets when the stream completed
+     * @return The System.nanoTime() at which the Server finished, or 0 if it has not
+     */
+    public long getFinishNanos() {
+        return finishNanos;
+    }
+
+    /**
+     * Gets the Servers id number
+     * @return An integer equal to the Servers id
+     */
+    public int getId() {
+        return id;
+    }
+}
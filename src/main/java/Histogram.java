@@ -0,0 +1,118 @@
+/**
+ * This class represents a histogram of non-negative long values, e.g. latencies in nanoseconds -
+ * Values below 32 are counted exactly and larger values in 16 buckets per power of two (within 1/16 of the value).
+ * Every bucket is allocated up front, so recording never allocates and costs a few instructions
+ * @author Alex Harlock
+ */
+public class Histogram {
+
+    private static final int EXACT = 32;          // Values below this are counted in a bucket of their own
+    private static final int SUB_BUCKETS = 16;    // Buckets per power of two above EXACT
+    private static final int NUM_BUCKETS = EXACT + (63 - 5) * SUB_BUCKETS;
+
+    private final long[] counts = new long[NUM_BUCKETS]; // Number of values recorded in each bucket
+    private long totalCount = 0;                  // Number of values recorded
+    private long max = 0;                         // Largest value recorded
+
+    /**
+     * Records a single value
+     * @param value The value to record - negative values are recorded as 0
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts[bucketOf(v)]++;
+        totalCount++;
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one
+     * @param other The histogram to add
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Gets the value below which the given percentage of recorded values fall
+     * @param percentile The percentile, from 0 to 100
+     * @return The highest value in the bucket holding that percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gets the largest value recorded
+     * @return The largest value, or 0 if nothing has been recorded
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the number of values recorded
+     * @return The number of values recorded
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Formats the p50, p90, p99, p99.9 and maximum values on one line
+     * @param unitDivisor Divides every value, e.g. 1000 to show nanoseconds as microseconds
+     * @return The formatted percentiles
+     */
+    public String summary(double unitDivisor) {
+        return String.format("p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                getValueAtPercentile(50) / unitDivisor, getValueAtPercentile(90) / unitDivisor,
+                getValueAtPercentile(99) / unitDivisor, getValueAtPercentile(99.9) / unitDivisor,
+                max / unitDivisor);
+    }
+
+    /**
+     * Gets the bucket a value is counted in
+     * @param value A non-negative value
+     * @return The index of its bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // 5 or more
+        int shift = magnitude - 4;                              // Leaves the top 5 bits, i.e. 16 to 31
+        return EXACT + (magnitude - 5) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Gets the largest value counted in a bucket
+     * @param bucket The index of the bucket
+     * @return The largest value it holds
+     */
+    private static long highestValueIn(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int magnitude = (bucket - EXACT) / SUB_BUCKETS + 5;
+        long subBucket = (bucket - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = magnitude - 4;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
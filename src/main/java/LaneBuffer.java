@@ -0,0 +1,217 @@
+/**
+ * This class represents a buffer split into priority lanes which share one capacity - Users add to the lane of their
+ * priority class, and Servers pick the lane to remove from either by weighted round-robin or by strict priority with
+ * aging, so no lane is ever starved. The time every element spends in its lane is recorded per lane
+ * @author Alex Harlock
+ */
+public class LaneBuffer extends AbstractSemaphoreBuffer
+{
+    /**
+     * How Servers choose the lane to remove from
+     */
+    public enum Policy {
+        WRR,      // Smooth weighted round-robin over the lanes with elements waiting
+        PRIORITY  // Highest priority lane first, unless a lower lane's oldest element has waited past the aging limit
+    }
+
+    private final Lane[] lanes;                  // The lanes, highest priority first, guarded by the lock
+    private final Policy policy;                 // How Servers choose the lane to remove from
+    private final long agingNanos;               // In PRIORITY mode, wait after which an element is served first
+
+    /**
+     * A lane holding elements in arrival order, along with the time each was added
+     */
+    private static final class Lane {
+        final int[] elements;                    // Ring of elements in the lane
+        final long[] addedAt;                    // System.nanoTime() at which each element was added
+        final int weight;                        // Share of removals given to the lane in WRR mode
+        int head = 0;                            // Index of the oldest element
+        int size = 0;                            // Number of elements in the lane
+        int credit = 0;                          // Smooth weighted round-robin credit
+        long numAdded = 0;                       // Number of elements ever added to the lane
+        long numRemoved = 0;                     // Number of elements ever removed from the lane
+        long numEvicted = 0;                     // Number of elements ever discarded to make space
+        final Histogram latency = new Histogram(); // Nanoseconds each removed element spent in the lane
+
+        Lane(int capacity, int weight) {
+            this.elements = new int[capacity];
+            this.addedAt = new long[capacity];
+            this.weight = weight;
+        }
+
+        void add(int element, long now) {
+            int index = (head + size) % elements.length;
+            elements[index] = element;
+            addedAt[index] = now;
+            size++;
+            numAdded++;
+        }
+
+        int remove(long now) {
+            int element = elements[head];
+            latency.record(now - addedAt[head]);
+            head = (head + 1) % elements.length;
+            size--;
+            numRemoved++;
+            return element;
+        }
+
+        void evict() {
+            head = (head + 1) % elements.length;
+            size--;
+            numEvicted++;
+        }
+    }
+
+    /**
+     * A buffer with one lane per weight, all sharing the given capacity
+     * @param bufferCapacity The maximum number of elements across all lanes
+     * @param weights The WRR weight of each lane, highest priority lane first
+     * @param policy How Servers choose the lane to remove from
+     * @param agingMillis In PRIORITY mode, how long an element can wait before it is served ahead of higher lanes
+     */
+    public LaneBuffer(int bufferCapacity, int[] weights, Policy policy, long agingMillis) {
+        super(bufferCapacity, false);
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("A LaneBuffer needs at least one lane");
+        }
+        this.policy = policy;
+        this.agingNanos = agingMillis * 1_000_000L;
+        this.lanes = new Lane[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            lanes[i] = new Lane(Math.max(1, bufferCapacity), Math.max(1, weights[i]));
+        }
+    }
+
+    /**
+     * Displays the number of elements remaining on the buffer, the throughput and latency of each lane and how
+     * long the program execution took
+     * @param timeToComplete The time in milliseconds for the program to run
+     */
+    @Override
+    public void finalSummation(long timeToComplete) {
+        System.out.println("--------------------------");
+        System.out.println("Buffer has " + getNumElementsInBuffer() + " elements remaining across " + lanes.length
+                + " lanes (" + policy + ")");
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            double throughput = (timeToComplete > 0) ? lane.numRemoved * 1000.0 / timeToComplete : 0;
+            System.out.println(String.format("Lane %d (weight %d): %d added, %d removed, %d evicted, "
+                            + "%.0f elements/s, time in lane (us) %s", i, lane.weight, lane.numAdded, lane.numRemoved, lane.numEvicted,
+                    throughput, lane.latency.summary(1000)));
+        }
+        System.out.println("--------------------------");
+        System.out.println("Program took " + timeToComplete + " milliseconds to complete");
+    }
+
+    /**
+     * Gets the number of priority lanes the buffer serves
+     * @return The number of lanes
+     */
+    @Override
+    public int getNumLanes() {
+        return lanes.length;
+    }
+
+    /**
+     * Adds an element to the end of a lane - The caller holds the lock
+     * @param newElement The element to be added
+     * @param lane The lane to add to
+     * @param now The current System.nanoTime(), recorded so the time the element spends in its lane is known
+     */
+    @Override
+    void store(int newElement, int lane, long now) {
+        lanes[lane].add(newElement, now);
+    }
+
+    /**
+     * Removes the oldest element of the lane chosen by the policy - The caller holds the lock
+     * @param now The current System.nanoTime()
+     * @return The element removed
+     */
+    @Override
+    int fetch(long now) {
+        return nextLane(now).remove(now);
+    }
+
+    /**
+     * Discards the oldest element of the lowest priority lane holding any, as long as it is no higher priority than
+     * the lane of the element that did not fit - So bulk load only ever displaces bulk load, while a high priority
+     * element displaces bulk load before its own lane. Evictions are counted apart from removals - The caller holds
+     * the lock
+     * @param lane The lane of the element that did not fit
+     * @return True if an element was discarded; False if every element waiting is of a higher priority lane
+     */
+    @Override
+    boolean evict(int lane) {
+        for (int i = lanes.length - 1; i >= lane; i--) {
+            if (lanes[i].size > 0) {
+                lanes[i].evict();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a lane exists
+     * @param lane The lane asked for
+     * @return The lane
+     * @throws IllegalArgumentException If there is no such lane
+     */
+    @Override
+    int laneFor(int lane) {
+        if (lane < 0 || lane >= lanes.length) {
+            throw new IllegalArgumentException("No lane " + lane + " in a buffer with " + lanes.length + " lanes");
+        }
+        return lane;
+    }
+
+    /**
+     * Gets the time each add and remove is stamped with
+     * @return The current System.nanoTime()
+     */
+    @Override
+    long timestamp() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Chooses the lane to remove the next element from - The caller must hold the lock, and at least one lane
+     * must hold an element
+     * @param now The current System.nanoTime()
+     * @return The chosen lane
+     */
+    private Lane nextLane(long now) {
+        if (policy == Policy.PRIORITY) {
+            Lane highest = null;
+            Lane oldest = null;
+            for (Lane lane : lanes) {
+                if (lane.size == 0) {
+                    continue;
+                }
+                if (highest == null) {
+                    highest = lane;
+                }
+                if (oldest == null || lane.addedAt[lane.head] < oldest.addedAt[oldest.head]) {
+                    oldest = lane;
+                }
+            }
+            return (now - oldest.addedAt[oldest.head] >= agingNanos) ? oldest : highest;
+        }
+        Lane chosen = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes) {
+            if (lane.size == 0) {
+                continue;
+            }
+            lane.credit += lane.weight;
+            totalWeight += lane.weight;
+            if (chosen == null || lane.credit > chosen.credit) {
+                chosen = lane;
+            }
+        }
+        chosen.credit -= totalWeight;
+        return chosen;
+    }
+}
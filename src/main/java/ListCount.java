@@ -1,4 +1,11 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class represents controller for the SCC211 Threading & Concurrency Coursework
@@ -6,16 +13,54 @@ import java.util.*;
  */
 public class ListCount {
 
-    ArrayList<User> users = new ArrayList<>();     // The user threads
-    ArrayList<Server> servers = new ArrayList<>(); // The server threads
+    ArrayList<User> users = new ArrayList<>();     // The user tasks
+    ArrayList<Server> servers = new ArrayList<>(); // The server tasks
+    private final ArrayList<Future<?>> userThreads = new ArrayList<>();   // Completion of each running user
+    private final ArrayList<Future<?>> serverThreads = new ArrayList<>(); // Completion of each running server
+    private ExecutorService executor;              // Runs the user and server tasks
 
-    private final Buffer b;                        // Instance of the buffer
+    private BufferEngine b;                        // Instance of the buffer
+    private BufferEngineType bufferEngineType;     // Implementation asked for by the "engine" setting
+    private BufferEngineType engineUsed;           // Implementation actually backing the buffer, e.g. SPSC standing in
+    private int batchSize;                         // Maximum number of elements moved per buffer operation
+    private EventLog.Mode logMode;                 // How much of the add/remove event stream is printed
+    private int logSampleRate;                     // In sampled logging mode, one in every logSampleRate events is printed
+    private ExecutionMode executionMode;           // Kind of threads the users and servers run on
+    private int poolSize;                          // Number of platform threads in the POOL execution mode, 0 for one per task
+    private boolean dynamicWork;                   // True if users share the work and servers run until the buffer is drained
+    private int workChunkSize;                     // In dynamic mode, the number of elements a user claims at once
+    private WaitStrategy waitStrategy;             // What users/servers do after finding the buffer full/empty
+    private OverflowPolicy overflowPolicy;         // What users do with an element when the buffer is full
+    private long overflowTimeoutNanos;             // Longest users wait for space under the REJECT policy
+    private ArrivalSchedule.Process arrivalProcess; // How open-loop arrivals are spaced, or null for a closed loop
+    private double arrivalRate;                    // In an open loop, the target arrivals per second across all users
+    private ArrivalSchedule schedule;              // Arrival times of the elements in an open loop, or null
+    private Processing processing;                 // Work servers do with each element they remove
+    private int processingCost;                    // Rounds of hashing, or microseconds of waiting, per element
+    private int processingThreads;                 // Threads processing removed batches in parallel, or 0 for none
+    private int processingInFlight;                // Most batches waiting for or being processed in parallel
+    private ElementProcessor processor;            // Processes the elements servers remove
+    private String pipelineStages;                 // Stages the elements pass through in place of the servers, or null
+    private Pipeline pipeline;                     // Chain of buffers and workers in place of the servers, or null
+    private boolean elasticServers;                // True if the number of servers follows the buffer's occupancy
+    private ElasticServerPool elasticPool;         // Starts and retires servers as the buffer fills and empties, or null
+    private String remote;                         // Where users/servers reach the buffer over the network, or null
+    private BufferNode node;                       // Serves the buffer to remote users/servers, or null
+    private final ArrayList<RemoteUser> remoteUsers = new ArrayList<>();     // The remote user tasks
+    private final ArrayList<RemoteServer> remoteServers = new ArrayList<>(); // The remote server tasks
+    private boolean flow;                          // True if servers subscribe to the buffer rather than removing
+    private int flowRequestSize;                   // Most elements a flow server has requested but not received
+    private BufferPublisher publisher;             // Pushes elements to the flow servers, or null
+    private final ArrayList<FlowServer> flowServers = new ArrayList<>();     // The flow servers
 
     private int bufferCapacity;                    // Maximum capacity of the buffer at any one time
     private int numUsers;                          // Number of users adding elements to the buffer
     private int numServers;                        // Number of servers removing elements from the buffer
     private int numElementsToAdd;                  // Total number of elements to add to the buffer
-    private final long timeToComplete;             // Time taken in milliseconds for the program to execute
+    private long timeToComplete;                   // Time taken in milliseconds for the program to execute
+    private long runNanos;                         // Time taken in nanoseconds for the program to execute
+    private long cpuNanos;                         // Processor time used by the program while it executed, or -1
+    private long endNanos;                         // System.nanoTime() at which the last thread finished
 
     /**
      * Controls the execution of the main thread of the program
@@ -25,15 +70,82 @@ public class ListCount {
         userSetParameters();
         //autoSetParameters();
 
+        // Execution and results
+        execute(true);
+    }
+
+    /**
+     * Runs the program without prompting, for scripted runs - The remaining parameters are read from the settings
+     * @param bufferCapacity Maximum capacity of the buffer at any one time
+     * @param numUsers Number of users adding elements to the buffer
+     * @param numServers Number of servers removing elements from the buffer
+     * @param numElementsToAdd Total number of elements to add to the buffer
+     * @param showReport True to display the program report once the run completes; False to run silently
+     */
+    public ListCount(int bufferCapacity, int numUsers, int numServers, int numElementsToAdd, boolean showReport)
+            throws InterruptedException {
+        // Setup
+        this.bufferCapacity = bufferCapacity;
+        this.numUsers = numUsers;
+        this.numServers = numServers;
+        this.numElementsToAdd = numElementsToAdd;
+        setBufferEngineType();
+        setBatchSize();
+        setLogMode();
+        setExecutionMode();
+        setWorkDistribution();
+        setWaitStrategy();
+        setOverflowPolicy();
+        setArrivalProcess();
+        setProcessing();
+        setPipeline();
+        setElasticServers();
+        setRemote();
+        setFlow();
+
+        // Execution and results
+        execute(showReport);
+    }
+
+    /**
+     * Creates the buffer, runs the users and servers to completion and times the run
+     * @param showReport True to display the program report afterwards; False otherwise
+     */
+    private void execute(boolean showReport) throws InterruptedException {
         // Execution
+        EventLog.start(logMode, logSampleRate, bufferCapacity); // Opened before timing starts, so the run's time and
+        TraceRecorder.start(bufferCapacity);                    // CPU exclude setting up the log and trace files
         long startTime = System.currentTimeMillis();
-        b = new Buffer(bufferCapacity);
+        long startNanos = System.nanoTime();
+        long startCpuNanos = getProcessCpuNanos();
+        engineUsed = resolveEngineType();
+        if (pipelineStages != null) {
+            pipeline = new Pipeline.Builder(engineUsed, batchSize).stages(pipelineStages, bufferCapacity).build();
+            b = pipeline.getInput();
+        }
+        else if (!isRemoteClient()) { // A client's users/servers reach a buffer held by a node in another process
+            b = engineUsed.create(bufferCapacity);
+        }
         runSimulation();
+        endNanos = System.nanoTime();
+        long endCpuNanos = getProcessCpuNanos();
         long endTime = System.currentTimeMillis();
+        EventLog.stop();
+        TraceRecorder.stop();
         timeToComplete = (endTime - startTime);
+        runNanos = endNanos - startNanos;
+        cpuNanos = (startCpuNanos < 0 || endCpuNanos < 0) ? -1 : endCpuNanos - startCpuNanos;
 
         // Results
-        displayProgramReport();
+        if (showReport) {
+            displayProgramReport();
+        }
+        if (pipeline != null) {
+            pipeline.dispose();
+        }
+        else if (b != null) {
+            b.dispose();
+        }
     }
 
     /**
@@ -44,6 +156,19 @@ public class ListCount {
         setNumUsers();
         setNumServers();
         setNumElements();
+        setBufferEngineType();
+        setBatchSize();
+        setLogMode();
+        setExecutionMode();
+        setWorkDistribution();
+        setWaitStrategy();
+        setOverflowPolicy();
+        setArrivalProcess();
+        setProcessing();
+        setPipeline();
+        setElasticServers();
+        setRemote();
+        setFlow();
     }
 
     /**
@@ -54,6 +179,19 @@ public class ListCount {
         numUsers = 10;
         numServers = 10;
         numElementsToAdd = 100;
+        setBufferEngineType();
+        setBatchSize();
+        setLogMode();
+        setExecutionMode();
+        setWorkDistribution();
+        setWaitStrategy();
+        setOverflowPolicy();
+        setArrivalProcess();
+        setProcessing();
+        setPipeline();
+        setElasticServers();
+        setRemote();
+        setFlow();
     }
 
     /**
@@ -69,16 +207,269 @@ public class ListCount {
      * Displays information regarding the execution of the program:
      * 1. Number of elements created per user
      * 2. Number of elements consumed per server
-     * 3. Number of elements remaining in the buffer
-     * 4. How long the program took to execute
+     * 3. Add/remove latency percentiles, contention and buffer occupancy
+     * 4. Number of elements remaining in the buffer
+     * 5. How long the program took to execute
      */
     private void displayProgramReport() {
         System.out.println("------------");
         displayElementsAddedPerUser();
         displayElementsRemovedPerServer();
+        displayLatencyReport();
+        displayLoadImbalance();
+        displayOpenLoopReport();
+        processor.displaySummary();
+        displayRemoteReport();
+        if (publisher != null) {
+            publisher.displaySummary();
+        }
+        if (elasticPool != null) {
+            elasticPool.displaySummary();
+        }
+        if (pipeline != null) {
+            pipeline.displaySummary(endNanos);
+        }
+        displayCpuUsage();
+        if (b == null) {
+            displayRemoteBufferSummary();
+            return;
+        }
+        displayEngine();
         b.finalSummation(timeToComplete);
     }
 
+    /**
+     * Displays, in place of the buffer's summary, where the buffer of a client run is held - Its node, in another
+     * process, reports the elements remaining on it
+     */
+    private void displayRemoteBufferSummary() {
+        System.out.println("--------------------------");
+        System.out.println("Buffer is held by the node at " + remote + ", which reports the elements remaining");
+        System.out.println("--------------------------");
+        System.out.println("Program took " + timeToComplete + " milliseconds to complete");
+    }
+
+    /**
+     * Displays the buffer implementation used, and the one asked for if it was replaced
+     */
+    private void displayEngine() {
+        System.out.println("Buffer engine: " + engineUsed
+                + ((engineUsed != bufferEngineType) ? " in place of " + bufferEngineType : ""));
+    }
+
+    /**
+     * Gets the buffer implementation the run actually used, which differs from the "engine" setting when SPSC
+     * stood in for it or was replaced
+     * @return The implementation backing the buffer
+     */
+    public BufferEngineType getEngineUsed() {
+        return engineUsed;
+    }
+
+    /**
+     * Displays, for an open-loop run, the target and achieved rates, how far the users fell behind schedule and the
+     * latency of every element from its scheduled arrival to its removal
+     */
+    private void displayOpenLoopReport() {
+        if (schedule == null) {
+            return;
+        }
+        Histogram lag = new Histogram();
+        for (User user : users) {
+            lag.add(user.getScheduleLag());
+        }
+        double seconds = runNanos / 1e9;
+        System.out.println(String.format("Open loop (%s): target %.0f elements/s, achieved %.0f elements/s",
+                schedule.getProcess(), schedule.getRatePerSecond(), (seconds > 0) ? numElementsToAdd / seconds : 0));
+        System.out.println("Users started adds behind schedule by (us) " + lag.summary(1000));
+        for (Server server : servers) {
+            System.out.println("Consumer " + server.getId() + " end-to-end latency (us) "
+                    + server.getEndToEndLatency().summary(1000));
+        }
+        System.out.println("All consumers end-to-end latency (us) " + getEndToEndLatency().summary(1000));
+    }
+
+    /**
+     * Gets the latency of every add, including any wait for space, across all users
+     * @return A histogram of latencies in nanoseconds
+     */
+    public Histogram getAddLatency() {
+        Histogram addLatency = new Histogram();
+        for (User user : users) {
+            addLatency.add(user.getAddLatency());
+        }
+        return addLatency;
+    }
+
+    /**
+     * Gets the number of elements users discarded, or evicted from the buffer, under a DROP overflow policy
+     * @return The number of dropped elements, across all users
+     */
+    public long getDroppedElements() {
+        long dropped = 0;
+        for (User user : users) {
+            dropped += user.getDroppedElements();
+        }
+        return dropped;
+    }
+
+    /**
+     * Gets the number of elements users gave up under the REJECT overflow policy
+     * @return The number of timed out elements, across all users
+     */
+    public long getTimedOutElements() {
+        long timedOut = 0;
+        for (User user : users) {
+            timedOut += user.getTimedOutElements();
+        }
+        return timedOut;
+    }
+
+    /**
+     * Gets the latency of every element from its scheduled arrival to its removal, across all servers
+     * @return A histogram of latencies in nanoseconds, empty unless the run was open loop
+     */
+    public Histogram getEndToEndLatency() {
+        Histogram endToEnd = new Histogram();
+        for (Server server : servers) {
+            endToEnd.add(server.getEndToEndLatency());
+        }
+        return endToEnd;
+    }
+
+    /**
+     * Displays the processor time used by the run against its throughput, to compare wait strategies
+     */
+    private void displayCpuUsage() {
+        double seconds = runNanos / 1e9;
+        String throughput = String.format("%.0f elements/s", (seconds > 0) ? numElementsToAdd / seconds : 0);
+        if (cpuNanos < 0) {
+            System.out.println("Wait strategy " + waitStrategy + ": " + throughput + ", CPU time unavailable");
+            return;
+        }
+        System.out.println(String.format("Wait strategy %s: %s, CPU time %.1fms (%.2f cores busy), %.0fns CPU per element",
+                waitStrategy, throughput, cpuNanos / 1e6, (runNanos > 0) ? (double) cpuNanos / runNanos : 0,
+                (numElementsToAdd > 0) ? (double) cpuNanos / numElementsToAdd : 0));
+    }
+
+    /**
+     * Gets the processor time used by every thread of the program so far
+     * @return The time in nanoseconds, or -1 if the JVM cannot measure it
+     */
+    private static long getProcessCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Displays how evenly the work was spread - For users and servers, the busiest thread's share of the elements
+     * relative to the mean and the spread of their element counts, plus how far apart the first and last finished
+     */
+    private void displayLoadImbalance() {
+        long[] added = new long[users.size()];
+        long[] userFinish = new long[users.size()];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = users.get(i).getNumberOfElementsAdded();
+            userFinish[i] = users.get(i).getFinishNanos();
+        }
+        long[] removed = new long[servers.size() + flowServers.size()];
+        long[] serverFinish = new long[removed.length];
+        for (int i = 0; i < servers.size(); i++) {
+            removed[i] = servers.get(i).getNumElementsRemoved();
+            serverFinish[i] = servers.get(i).getFinishNanos();
+        }
+        for (int i = 0; i < flowServers.size(); i++) {
+            removed[servers.size() + i] = flowServers.get(i).getNumElementsRemoved();
+            serverFinish[servers.size() + i] = flowServers.get(i).getFinishNanos();
+        }
+        System.out.println("Work distribution: " + (dynamicWork ? "dynamic" : "static"));
+        System.out.println("Users " + describeImbalance(added, userFinish));
+        System.out.println("Consumers " + describeImbalance(removed, serverFinish));
+    }
+
+    /**
+     * Describes the imbalance between a set of users/servers
+     * @param counts The number of elements each moved
+     * @param finishNanos The System.nanoTime() at which each finished
+     * @return The busiest thread's count over the mean, the coefficient of variation and the spread of finish times
+     */
+    private static String describeImbalance(long[] counts, long[] finishNanos) {
+        if (counts.length == 0) {
+            return "none";
+        }
+        double mean = 0;
+        long max = 0;
+        for (long count : counts) {
+            mean += count;
+            max = Math.max(max, count);
+        }
+        mean /= counts.length;
+        double variance = 0;
+        for (long count : counts) {
+            variance += (count - mean) * (count - mean);
+        }
+        double cv = (mean == 0) ? 0 : Math.sqrt(variance / counts.length) / mean;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (long finish : finishNanos) {
+            first = Math.min(first, finish);
+            last = Math.max(last, finish);
+        }
+        return String.format("max/mean %.2f, coefficient of variation %.1f%%, finished within %.2fms of each other",
+                (mean == 0) ? 0 : max / mean, 100 * cv, (last - first) / 1e6);
+    }
+
+    /**
+     * Displays the add/remove latency percentiles of each user and server, the number of times each found the
+     * buffer full/empty, the distribution of buffer occupancy and how long the buffer spent full and empty
+     */
+    private void displayLatencyReport() {
+        Histogram addLatency = new Histogram();
+        Histogram removeLatency = new Histogram();
+        Histogram occupancy = new Histogram();
+        long failedAdds = 0;
+        long failedRemoves = 0;
+        System.out.println("Latencies in microseconds:");
+        for (User user : users) {
+            System.out.println("User " + user.getId() + " add " + user.getAddLatency().summary(1000)
+                    + ", found buffer full " + user.getFailedAdds() + " times");
+            addLatency.add(user.getAddLatency());
+            occupancy.add(user.getOccupancy());
+            failedAdds += user.getFailedAdds();
+        }
+        for (Server server : servers) {
+            System.out.println("Consumer " + server.getId() + " remove " + server.getRemoveLatency().summary(1000)
+                    + ", found buffer empty " + server.getFailedRemoves() + " times");
+            removeLatency.add(server.getRemoveLatency());
+            occupancy.add(server.getOccupancy());
+            failedRemoves += server.getFailedRemoves();
+        }
+        System.out.println("All users add " + addLatency.summary(1000) + ", found buffer full " + failedAdds + " times");
+        System.out.println("All consumers remove " + removeLatency.summary(1000) + ", found buffer empty " + failedRemoves + " times");
+        System.out.println("Buffer occupancy " + occupancy.summary(1));
+
+        if (b == null) {
+            return; // The node holding the buffer reports when it was full or empty
+        }
+        BufferStatus status = b.getStatus();
+        System.out.println(String.format("Buffer was full %d times for %.1fms (%.1f%%) and empty %d times for %.1fms (%.1f%%)",
+                status.getTimesFull(), status.getNanosFull(endNanos) / 1e6, percentOf(status.getNanosFull(endNanos), runNanos),
+                status.getTimesEmpty(), status.getNanosEmpty(endNanos) / 1e6, percentOf(status.getNanosEmpty(endNanos), runNanos)));
+    }
+
+    /**
+     * Gets a time as a percentage of the program's run time
+     * @param nanos The time in nanoseconds
+     * @param runNanos The program's run time in nanoseconds
+     * @return The percentage, or 0 if the run took no measurable time
+     */
+    private static double percentOf(long nanos, double runNanos) {
+        return (runNanos <= 0) ? 0 : Math.min(100, 100.0 * nanos / runNanos);
+    }
+
     /**
      * Specifies buffer capacity
      */
@@ -111,28 +502,310 @@ public class ListCount {
         numElementsToAdd = getUserInput();
     }
 
+    /**
+     * Specifies the buffer implementation from the "engine" setting, e.g. -Dcw.engine=ring
+     */
+    private void setBufferEngineType() {
+        bufferEngineType = BufferEngineType.fromName(Settings.getString("engine", "list"));
+    }
+
+    /**
+     * Gets the buffer implementation the run will use - The wait-free SPSC buffer is only safe with exactly one user
+     * adding and one server removing, so it stands in for a LIST or RING buffer in such a run, unless the "spsc"
+     * setting, e.g. -Dcw.spsc=false, turns this off. Asked for by name in any other run, it is replaced by RING
+     * @return The implementation to back the buffer with
+     */
+    private BufferEngineType resolveEngineType() {
+        boolean spscSafe = isSingleProducerSingleConsumer();
+        if (bufferEngineType == BufferEngineType.SPSC && !spscSafe) {
+            System.err.println("The SPSC engine needs exactly one user and one server that only add and remove, "
+                    + "so RING is used instead");
+            return BufferEngineType.RING;
+        }
+        if (spscSafe && Settings.getBoolean("spsc", true)
+                && (bufferEngineType == BufferEngineType.LIST || bufferEngineType == BufferEngineType.RING)) {
+            return BufferEngineType.SPSC;
+        }
+        return bufferEngineType;
+    }
+
+    /**
+     * Gets whether the run has exactly one user adding and one server removing - Pipelines, elastic servers, remote
+     * users/servers, spilling buffers and drop-oldest users, which remove elements themselves, never count, and nor
+     * do flow servers, whose publisher is woken by each add and needs it to be visible at once
+     * @return True if a single-producer, single-consumer buffer would be safe; False otherwise
+     */
+    private boolean isSingleProducerSingleConsumer() {
+        return numUsers == 1 && numServers == 1 && pipelineStages == null
+                && !Settings.getBoolean("spill", false) && !elasticServers && remote == null
+                && overflowPolicy != OverflowPolicy.DROP_OLDEST && !flow;
+    }
+
+    /**
+     * Specifies the maximum number of elements each user/server moves per buffer operation from the "batch"
+     * setting, e.g. -Dcw.batch=16
+     */
+    private void setBatchSize() {
+        batchSize = Settings.getInt("batch", 1);
+    }
+
+    /**
+     * Specifies how much of the add/remove event stream is printed from the "log" and "log.sample" settings,
+     * e.g. -Dcw.log=sampled -Dcw.log.sample=1000 - Nothing is printed unless asked for
+     */
+    private void setLogMode() {
+        logMode = EventLog.Mode.valueOf(Settings.getString("log", "off").trim().toUpperCase());
+        logSampleRate = Settings.getInt("log.sample", 1000);
+    }
+
+    /**
+     * Specifies the kind of threads users and servers run on from the "exec" and "pool.size" settings,
+     * e.g. -Dcw.exec=virtual or -Dcw.exec=pool -Dcw.pool.size=8 - The pool is fixed at pool.size threads, which must
+     * be at least the number of users and servers, as each holds its thread until it finishes. Left unset, the pool
+     * has exactly one thread per user and server
+     */
+    private void setExecutionMode() {
+        executionMode = ExecutionMode.fromName(Settings.getString("exec", "dedicated"));
+        poolSize = Settings.getInt("pool.size", 0);
+    }
+
+    /**
+     * Specifies how elements are shared out from the "work" and "work.chunk" settings - "static" (the default)
+     * gives every user/server an equal share up front, while "dynamic", e.g. -Dcw.work=dynamic -Dcw.work.chunk=64,
+     * has users claim chunks from one shared pool and servers remove until the buffer is closed and drained
+     */
+    private void setWorkDistribution() {
+        String work = Settings.getString("work", "static").trim().toLowerCase();
+        if (!work.equals("static") && !work.equals("dynamic")) {
+            throw new IllegalArgumentException("Unknown work distribution: " + work);
+        }
+        dynamicWork = work.equals("dynamic");
+        workChunkSize = Settings.getInt("work.chunk", 64);
+    }
+
+    /**
+     * Specifies what users do with an element when the buffer is full from the "overflow" settings, e.g.
+     * -Dcw.overflow=reject -Dcw.overflow.timeout=5 - One of block (the default), reject, drop-oldest or drop-newest,
+     * with reject waiting up to "overflow.timeout" ms (default 0) for space before giving the element up
+     */
+    private void setOverflowPolicy() {
+        overflowPolicy = OverflowPolicy.fromName(Settings.getString("overflow", "block"));
+        overflowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Settings.getInt("overflow.timeout", 0));
+    }
+
+    /**
+     * Specifies what users/servers do after finding the buffer full/empty from the "wait" setting, e.g.
+     * -Dcw.wait=spin - One of spin, yield, park or block (the default)
+     */
+    private void setWaitStrategy() {
+        waitStrategy = WaitStrategy.fromName(Settings.getString("wait", "block"));
+    }
+
+    /**
+     * Specifies whether users add as fast as the buffer allows or at scheduled times, from the "arrival" and "rate"
+     * settings - "closed" (the default) adds as fast as possible, while "constant" or "poisson", e.g.
+     * -Dcw.arrival=poisson -Dcw.rate=50000, schedules arrivals at the given rate per second across all users
+     */
+    private void setArrivalProcess() {
+        String arrival = Settings.getString("arrival", "closed").trim().toUpperCase();
+        arrivalProcess = arrival.equals("CLOSED") ? null : ArrivalSchedule.Process.valueOf(arrival);
+        arrivalRate = Settings.getInt("rate", 10_000);
+    }
+
+    /**
+     * Specifies the work servers do with each element from the "process" settings, e.g. -Dcw.process=hash
+     * -Dcw.process.cost=1000 - One of none (the default), hash (cost rounds of hashing) or sleep (cost microseconds
+     * of waiting). -Dcw.process.threads=4 hands removed batches to a pool of that many threads instead of processing
+     * them on the servers, with at most "process.inflight" batches (default two per server) handed over at once
+     */
+    private void setProcessing() {
+        processing = Processing.fromName(Settings.getString("process", "none"));
+        processingCost = Settings.getInt("process.cost", 100);
+        processingThreads = Settings.getInt("process.threads", 0);
+        processingInFlight = Settings.getInt("process.inflight", 2 * Math.max(1, numServers));
+    }
+
+    /**
+     * Specifies the stages of a pipeline from the "pipeline" setting, a list of name:workers[:capacity[:transform[:cost]]],
+     * e.g. -Dcw.pipeline=parse:2:100:hash:200,transform:4,persist:1:50:sleep:20 - Users add to the first stage's
+     * buffer and the stages' workers take the place of the servers. A stage without a capacity uses the buffer
+     * capacity. Without the setting, servers remove from a single buffer
+     */
+    private void setPipeline() {
+        pipelineStages = Settings.getString("pipeline", null);
+    }
+
+    /**
+     * Specifies whether the number of servers follows the buffer's occupancy from the "elastic" settings, e.g.
+     * -Dcw.elastic=true -Dcw.elastic.min=1 -Dcw.elastic.max=8 - The pool starts with the minimum (default 1) and
+     * never exceeds the maximum (default the number of servers). Every "elastic.sample" ms (default 5) the buffer is
+     * sampled; a server is started once occupancy stays at or above "elastic.up" percent of capacity (default 75) or
+     * the buffer is found full, and retired once it stays at or below "elastic.down" percent (default 25), with at
+     * least "elastic.cooldown" ms (default 50) between changes
+     */
+    private void setElasticServers() {
+        elasticServers = Settings.getBoolean("elastic", false);
+    }
+
+    /**
+     * Specifies whether users and servers reach the buffer over the network from the "remote" settings -
+     * "loopback", e.g. -Dcw.remote=loopback, serves the buffer on a free local port and connects every user and server
+     * to it. "node", e.g. -Dcw.remote=node -Dcw.remote.port=7070 -Dcw.remote.producers=4, only serves the buffer,
+     * closing it once that many producers (default the number of users) have finished. host:port, e.g.
+     * -Dcw.remote=bufferhost:7070 -Dcw.remote.role=users, connects this process's users, servers or both (the
+     * default) to a node elsewhere. "remote.window" (default 16) sets the requests each connection keeps in flight
+     */
+    private void setRemote() {
+        remote = Settings.getString("remote", null);
+    }
+
+    /**
+     * Gets whether the run only connects users/servers to a buffer node elsewhere, holding no buffer of its own
+     * @return True for a host:port "remote" setting; False otherwise
+     */
+    private boolean isRemoteClient() {
+        return remote != null && !remote.equals("loopback") && !remote.equals("node");
+    }
+
+    /**
+     * Specifies whether servers are pushed elements by a Flow publisher over the buffer from the "flow" settings,
+     * e.g. -Dcw.flow=true -Dcw.flow.request=64 - Each server then requests up to "flow.request" elements (default
+     * 64) at a time instead of removing them itself, and completes once the users have finished and the buffer has
+     * drained. Pipelines and remote servers take precedence over it
+     */
+    private void setFlow() {
+        flow = Settings.getBoolean("flow", false);
+        flowRequestSize = Settings.getInt("flow.request", 64);
+    }
+
     /**
      * Creates the user and server threads
      */
     private void createThreads() {
+        processor = new ElementProcessor(processing, processingCost, processingThreads, processingInFlight);
+        if (arrivalProcess != null) {
+            schedule = new ArrivalSchedule(numElementsToAdd, arrivalProcess, arrivalRate, numUsers);
+        }
+        if (remote != null) {
+            createRemoteThreads();
+            return;
+        }
         createUserThreads();
         createServerThreads();
     }
 
+    /**
+     * Creates the buffer node and/or the remote users and servers for the "remote" setting
+     */
+    private void createRemoteThreads() {
+        String host = "127.0.0.1";
+        int port;
+        String role = Settings.getString("remote.role", "both").trim().toLowerCase();
+        try {
+            if (remote.equals("loopback") || remote.equals("node")) {
+                node = new BufferNode(b, remote.equals("node") ? Settings.getInt("remote.port", 7070) : 0,
+                        Settings.getInt("remote.producers", numUsers));
+                port = node.getPort();
+                if (remote.equals("node")) {
+                    System.out.println("Serving the buffer on port " + port);
+                    return;
+                }
+            }
+            else {
+                int split = remote.lastIndexOf(':');
+                host = remote.substring(0, split);
+                port = Integer.parseInt(remote.substring(split + 1).trim());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot serve the buffer: " + e.getMessage(), e);
+        }
+        int window = Settings.getInt("remote.window", 16);
+        if (!role.equals("servers")) {
+            warnIgnoredByRemoteUsers();
+            WorkPool shared = new WorkPool(numElementsToAdd, workChunkSize);
+            int numElements = (numElementsToAdd / numUsers);
+            int remainder = (numElementsToAdd % numUsers);
+            long firstIndex = 0;
+            for (int i = 0; i < numUsers; i++) {
+                int elementsPerUser = calculateElementNums(i, numElements, remainder);
+                WorkPool work = dynamicWork ? shared : new WorkPool(firstIndex, elementsPerUser, Integer.MAX_VALUE);
+                remoteUsers.add(new RemoteUser(i, work, host, port, batchSize, window, waitStrategy));
+                firstIndex += elementsPerUser;
+            }
+        }
+        if (!role.equals("users")) {
+            for (int i = 0; i < numServers; i++) {
+                remoteServers.add(new RemoteServer(i, host, port, batchSize, window, waitStrategy, processor));
+            }
+        }
+    }
+
+    /**
+     * Warns about the settings remote users do not honour - Each adds its elements as fast as the node accepts them,
+     * into the buffer's lowest priority lane, and waits out a full buffer by its wait strategy rather than shedding
+     */
+    private void warnIgnoredByRemoteUsers() {
+        List<String> ignored = new ArrayList<>();
+        if (overflowPolicy != OverflowPolicy.BLOCK) {
+            ignored.add("overflow=" + overflowPolicy.name().toLowerCase());
+        }
+        if (Settings.getString("user.lanes", null) != null) {
+            ignored.add("user.lanes");
+        }
+        if (arrivalProcess != null) {
+            ignored.add("arrival=" + arrivalProcess.name().toLowerCase());
+        }
+        if (!ignored.isEmpty()) {
+            System.err.println("Remote users do not support " + String.join(", ", ignored)
+                    + ", so they add every element as fast as the node accepts it instead");
+        }
+    }
+
     /**
      * Starts user and server threads
      */
     private void startThreads() {
+        executor = executionMode.newExecutor(poolSize, getNumTasks());
+        if (schedule != null) {
+            schedule.start();
+        }
+        if (node != null) {
+            node.start();
+        }
         startUserThreads();
         startServerThreads();
     }
 
+    /**
+     * Gets the number of tasks the run keeps on the executor at once - every user and server, a pipeline's workers,
+     * the elastic pool's controller and largest size, or a flow server's delivery task
+     * @return The number of tasks
+     */
+    private int getNumTasks() {
+        int consumers;
+        if (pipeline != null) {
+            consumers = pipeline.getNumWorkers();
+        }
+        else if (elasticPool != null) {
+            consumers = elasticPool.getMaxServers() + 1;
+        }
+        else if (!flowServers.isEmpty()) {
+            consumers = flowServers.size();
+        }
+        else {
+            consumers = servers.size() + remoteServers.size();
+        }
+        return users.size() + remoteUsers.size() + consumers;
+    }
+
     /**
      * Waits for user and server threads to complete execution
      */
     private void waitForThreadsToFinish() throws InterruptedException {
         waitForUserThreadsToFinish();
         waitForServerThreadsToFinish();
+        processor.finish();
+        executor.shutdown();
     }
 
     /**
@@ -140,7 +813,16 @@ public class ListCount {
      */
     private void displayElementsAddedPerUser() {
         for (User user : users) {
-            System.out.println("User " + user.getId() + " created a total of " + user.getNumberOfElementsAdded());
+            System.out.println("User " + user.getId() + " created a total of " + user.getNumberOfElementsAdded()
+                    + " (average batch size " + String.format("%.2f", user.getAverageBatchSize()) + ")"
+                    + ((b.getNumLanes() > 1) ? " in lane " + user.getLane() : "")
+                    + (overflowPolicy.sheds() ? ", dropped " + user.getDroppedElements() + ", timed out "
+                    + user.getTimedOutElements() : ""));
+        }
+        if (overflowPolicy.sheds()) {
+            System.out.println(String.format("Overflow policy %s shed %d elements: %d dropped, %d timed out",
+                    overflowPolicy.name().toLowerCase(), getDroppedElements() + getTimedOutElements(),
+                    getDroppedElements(), getTimedOutElements()));
         }
     }
 
@@ -149,7 +831,35 @@ public class ListCount {
      */
     private void displayElementsRemovedPerServer() {
         for (Server server : servers) {
-            System.out.println("Consumer " + server.getId() + " consumed a total of " + server.getNumElementsRemoved() + " elements");
+            System.out.println("Consumer " + server.getId() + " consumed a total of " + server.getNumElementsRemoved() + " elements"
+                    + " (average batch size " + String.format("%.2f", server.getAverageBatchSize()) + ")");
+        }
+        for (FlowServer server : flowServers) {
+            System.out.println(String.format("Flow consumer %d was pushed a total of %d elements (average request "
+                            + "%.2f, %.0f elements/s)", server.getId(), server.getNumElementsRemoved(),
+                    server.getAverageRequestSize(), server.getElementsPerSecond()));
+        }
+    }
+
+    /**
+     * Displays, when users/servers reached the buffer over the network, each connection's element count,
+     * throughput and pipelining, and the node's traffic
+     */
+    private void displayRemoteReport() {
+        for (RemoteUser user : remoteUsers) {
+            System.out.println(String.format("Remote user %d added %d elements at %.0f elements/s, "
+                            + "%.1f requests per write, found buffer full %d times", user.getId(),
+                    user.getNumberOfElementsAdded(), user.getElementsPerSecond(), user.getRequestsPerFlush(),
+                    user.getRejectedAdds()));
+        }
+        for (RemoteServer server : remoteServers) {
+            System.out.println(String.format("Remote consumer %d removed %d elements at %.0f elements/s, "
+                            + "%.1f requests per write, found buffer empty %d times", server.getId(),
+                    server.getNumElementsRemoved(), server.getElementsPerSecond(), server.getRequestsPerFlush(),
+                    server.getEmptyRemoves()));
+        }
+        if (node != null) {
+            node.displaySummary();
         }
     }
 
@@ -170,24 +880,75 @@ public class ListCount {
      * Creates user threads
      */
     private void createUserThreads() {
+        if (dynamicWork) {
+            WorkPool work = new WorkPool(numElementsToAdd, workChunkSize);
+            for (int i = 0; i < numUsers; i++) {
+                users.add(new User(i, work, b, batchSize, waitStrategy, laneOf(i), schedule, overflowPolicy,
+                        overflowTimeoutNanos));
+            }
+            return;
+        }
         int numElements = (numElementsToAdd / numUsers);
         int remainder = (numElementsToAdd % numUsers);
+        long firstIndex = 0;
         for (int i = 0; i < numUsers; i++) {
             int elementsPerUser = calculateElementNums(i, numElements, remainder);
-            User new_user = new User(i, elementsPerUser, b);
+            WorkPool work = new WorkPool(firstIndex, elementsPerUser, Integer.MAX_VALUE);
+            User new_user = new User(i, work, b, batchSize, waitStrategy, laneOf(i), schedule, overflowPolicy,
+                    overflowTimeoutNanos);
             users.add(new_user);
+            firstIndex += elementsPerUser;
         }
     }
 
+    /**
+     * Gets the priority lane a user adds to from the "user.lanes" setting, a list applied to users in turn, e.g.
+     * -Dcw.user.lanes=0,1,1,1 puts one user in four in the highest priority lane - Without the setting, users are
+     * spread evenly over the buffer's lanes
+     * @param index The user's index
+     * @return The lane, 0 being the highest priority
+     */
+    private int laneOf(int index) {
+        String userLanes = Settings.getString("user.lanes", null);
+        if (userLanes == null) {
+            return index % b.getNumLanes();
+        }
+        String[] lanes = userLanes.split(",");
+        return Integer.parseInt(lanes[index % lanes.length].trim());
+    }
+
     /**
      * Creates server threads
      */
     private void createServerThreads() {
+        if (pipeline != null) {
+            return; // The pipeline's workers remove the elements
+        }
+        if (flow) {
+            for (int i = 0; i < numServers; i++) {
+                flowServers.add(new FlowServer(i, flowRequestSize));
+            }
+            return; // The publisher delivers to them once they subscribe
+        }
+        if (elasticServers) {
+            elasticPool = new ElasticServerPool(b,
+                    i -> new Server(i, Long.MAX_VALUE, b, batchSize, waitStrategy, schedule, processor, true),
+                    Settings.getInt("elastic.min", 1), Settings.getInt("elastic.max", numServers),
+                    Settings.getInt("elastic.sample", 5), Settings.getInt("elastic.up", 75) / 100.0,
+                    Settings.getInt("elastic.down", 25) / 100.0, Settings.getInt("elastic.cooldown", 50));
+            return; // The pool creates servers as they are needed
+        }
+        if (dynamicWork) {
+            for (int i = 0; i < numServers; i++) {
+                servers.add(new Server(i, Long.MAX_VALUE, b, batchSize, waitStrategy, schedule, processor));
+            }
+            return;
+        }
         int numElements = numElementsToAdd / numServers;
         int remainder = (numElementsToAdd % numServers);
         for (int i = 0; i < numServers; i++) {
             int elementsPerServer = calculateElementNums(i, numElements, remainder);
-            Server new_Server = new Server(i, elementsPerServer, b);
+            Server new_Server = new Server(i, elementsPerServer, b, batchSize, waitStrategy, schedule, processor);
             servers.add(new_Server);
         }
     }
@@ -197,7 +958,10 @@ public class ListCount {
      */
     private void startUserThreads() {
         for (User user : users) {
-            user.start();
+            userThreads.add(executor.submit(user));
+        }
+        for (RemoteUser user : remoteUsers) {
+            userThreads.add(executor.submit(user));
         }
     }
 
@@ -205,8 +969,26 @@ public class ListCount {
      * Starts server threads
      */
     private void startServerThreads() {
+        if (pipeline != null) {
+            serverThreads.addAll(pipeline.start(executor));
+            return;
+        }
+        if (elasticPool != null) {
+            serverThreads.add(elasticPool.start(executor));
+            return;
+        }
+        if (!flowServers.isEmpty()) {
+            publisher = new BufferPublisher(b, executor, flowRequestSize);
+            for (FlowServer server : flowServers) {
+                publisher.subscribe(server);
+            }
+            return;
+        }
         for (Server server : servers) {
-            server.start();
+            serverThreads.add(executor.submit(server));
+        }
+        for (RemoteServer server : remoteServers) {
+            serverThreads.add(executor.submit(server));
         }
     }
 
@@ -214,28 +996,85 @@ public class ListCount {
      * Waits for user threads to complete execution
      */
     private void waitForUserThreadsToFinish() throws InterruptedException {
-        for (User user : users) {
-            user.join();
+        for (Future<?> userThread : userThreads) {
+            join(userThread);
         }
-        userThreadsComplete();
+        if (node == null) {
+            userThreadsComplete();
+        } // Otherwise the node closes the buffer once every producer, local or not, has sent CLOSE
     }
 
     /**
      * Waits for server threads to complete execution
      */
     private void waitForServerThreadsToFinish() throws InterruptedException {
-        for (Server server : servers) {
-            server.join();
+        for (Future<?> serverThread : serverThreads) {
+            join(serverThread);
+        }
+        if (publisher != null) { // Completed by closing the buffer in userThreadsComplete(), or cancelled
+            publisher.awaitSubscriptions();
+        }
+        if (elasticPool != null) { // The controller has stopped, so no more servers will be started
+            elasticPool.awaitServers();
+            servers.addAll(elasticPool.getServers());
+        }
+        if (node != null) {
+            node.awaitDrained();
+            node.stop();
+        }
+    }
+
+    /**
+     * Waits for a user/server to complete execution, whichever kind of thread it ran on
+     * @param thread The running user/server
+     */
+    private void join(Future<?> thread) throws InterruptedException {
+        try {
+            thread.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
         }
     }
 
     /**
-     * Signals to all Server threads that all User threads have completed execution
+     * Signals to all Server threads that all User threads have completed execution, by closing the buffer -
+     * Servers then remove whatever is left and finish instead of waiting for elements that will never arrive
      */
     public void userThreadsComplete() {
-        for (Server server : servers) {
-            server.setThreadCompletionState(true);
+        if (b != null) {
+            b.close();
+        } // A client's remote users send CLOSE to the node instead
+    }
+
+    /**
+     * Gets how long the run took, from creating the buffer to the last thread finishing
+     * @return The time in nanoseconds
+     */
+    public long getRunNanos() {
+        return runNanos;
+    }
+
+    /**
+     * Gets the processor time used by the run, across every thread
+     * @return The time in nanoseconds, or -1 if the JVM cannot measure it
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * Gets the number of elements left on the buffer (every buffer of a pipeline), or taken by the flow publisher but
+     * never delivered, after the run, which is 0 for a correct run
+     * @return The number of elements remaining
+     */
+    public int getNumElementsRemaining() {
+        if (pipeline != null) {
+            return pipeline.getNumElementsRemaining();
+        }
+        if (b == null) {
+            return 0; // A client run holds no buffer - the node reports what is left on its own
         }
+        return b.getNumElementsInBuffer() + ((publisher != null) ? publisher.getNumUndelivered() : 0);
     }
 
     /**
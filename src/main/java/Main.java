@@ -1,3 +1,7 @@
+import java.io.IOException;
+
+import jdk.jfr.Recording;
+
 /**
  * This class represents the main method of my program for the SCC211 Threading & Concurrency Coursework
  * @author Alex Harlock
@@ -5,12 +9,21 @@
 public class Main {
 
     /**
-     * Main method
+     * Main method - Prompts for the program parameters, or runs a headless sweep when given key=value arguments
+     * (see ScenarioRunner) - With the "jfr" setting, e.g. -Dcw.jfr=run.jfr, the whole run is flight recorded
      */
     public static void main(String[] args) {
         try {
-            new ListCount();
-        } catch (InterruptedException e) {
+            ScenarioRunner scenario = (args.length > 0) ? new ScenarioRunner(args) : null; // May set "jfr" itself
+            Recording recording = FlightEvents.startRecording();
+            if (scenario != null) {
+                scenario.run();
+            }
+            else {
+                new ListCount();
+            }
+            FlightEvents.stopRecording(recording);
+        } catch (InterruptedException | IOException e) {
             e.printStackTrace();
         }
     }
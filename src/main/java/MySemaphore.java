@@ -1,39 +1,165 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
 /**
- * This class represents a semaphore that controls access to a buffer accessed concurrently by many threads
+ * This class represents a counting semaphore that controls access to a buffer accessed concurrently by many threads -
+ * Permits are taken with a compare-and-set when they are available, and threads that have to wait queue up in
+ * arrival order and are woken individually as permits are released
  * @author Alex Harlock
  */
 public class MySemaphore {
 
-    private boolean locked; // True if the lock is held; False otherwise
-    private boolean bufferFull = false; // Stores whether the buffer is currently full
-    private boolean bufferEmpty = false; // Stores whether the buffer is currently empty
+    private final AtomicInteger permits;          // Number of permits currently available
+    private final boolean fair;                   // True if waiting threads are never overtaken by new arrivals
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>(); // Threads waiting for permits, guarded by this
+    private volatile int numWaiters = 0;          // Size of the queue, readable without holding this
+    private final BufferStatus status = new BufferStatus(); // Stores whether the buffer is currently full/empty
+
+    /**
+     * A thread waiting in the queue for a number of permits
+     */
+    private static final class Waiter {
+        final Thread thread = Thread.currentThread(); // The waiting thread
+        final int permits;                            // Number of permits the thread is waiting for
+
+        Waiter(int permits) {
+            this.permits = permits;
+        }
+    }
 
     /**
      * A semaphore to control multiple thread access to a critical section of code
-     * @param bound Should be equal to 1 to allow mutual exclusion
+     * @param bound The number of permits initially available - 1 allows mutual exclusion
      */
     public MySemaphore(int bound) {
-        locked = (bound == 0);
+        this(bound, false);
+    }
+
+    /**
+     * A semaphore to control multiple thread access to a critical section of code
+     * @param bound The number of permits initially available - 1 allows mutual exclusion
+     * @param fair True if permits should be handed out in strict FIFO order; False to let a new arrival take
+     *             available permits ahead of waiting threads, which is faster under contention
+     */
+    public MySemaphore(int bound, boolean fair) {
+        this.permits = new AtomicInteger(bound);
+        this.fair = fair;
+    }
+
+    /**
+     * Attempts to acquire a permit, waits until one is free otherwise
+     */
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * Attempts to acquire the given number of permits, waits until they are free otherwise
+     * @param n The number of permits to acquire
+     */
+    public void acquire(int n) throws InterruptedException {
+        if (!tryAcquire(n)) {
+            acquireQueued(n, false, 0L);
+        }
+    }
+
+    /**
+     * Attempts to acquire a permit without waiting
+     * @return True if the permit was acquired; False otherwise
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Attempts to acquire the given number of permits without waiting -
+     * In fair mode this fails while other threads are queued, even if enough permits are available
+     * @param n The number of permits to acquire
+     * @return True if the permits were acquired; False otherwise
+     */
+    public boolean tryAcquire(int n) {
+        if (fair && numWaiters > 0) {
+            return false;
+        }
+        return take(n);
+    }
+
+    /**
+     * Attempts to acquire a permit, waiting up to the given time for one to become free
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the permit was acquired; False if the time ran out first
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(1, timeout, unit);
+    }
+
+    /**
+     * Attempts to acquire the given number of permits, waiting up to the given time for them to become free
+     * @param n The number of permits to acquire
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the permits were acquired; False if the time ran out first
+     */
+    public boolean tryAcquire(int n, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(n) || acquireQueued(n, true, unit.toNanos(timeout));
     }
 
     /**
-     * Attempts to acquire the lock, waits until it is free otherwise
+     * Acquires as many of the given number of permits as are available without waiting
+     * @param max The maximum number of permits to acquire
+     * @return The number of permits acquired, possibly 0
      */
-    public synchronized void acquire() throws InterruptedException {
-        while (locked) {
-            wait();
+    public int tryAcquireUpTo(int max) {
+        if (max <= 0 || (fair && numWaiters > 0)) {
+            return 0;
         }
-        locked = true;
+        while (true) {
+            int available = permits.get();
+            if (available <= 0) {
+                return 0;
+            }
+            int n = Math.min(max, available);
+            if (permits.compareAndSet(available, available - n)) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit, waking the first waiting thread if there is one
+     */
+    public void release() {
+        release(1);
     }
 
     /**
-     * Releases the lock if it is currently held
+     * Releases the given number of permits, waking the first waiting thread if there is one
+     * @param n The number of permits to release
      */
-    public synchronized void release() {
-        if (locked) {
-            notify();
+    public void release(int n) {
+        permits.addAndGet(n);
+        if (numWaiters > 0) {
+            wakeFirstWaiter();
         }
-        locked = false;
+    }
+
+    /**
+     * Gets the number of permits currently available
+     * @return The number of permits available
+     */
+    public int availablePermits() {
+        return permits.get();
+    }
+
+    /**
+     * Gets whether permits are handed out in strict FIFO order
+     * @return True if the semaphore is fair; False otherwise
+     */
+    public boolean isFair() {
+        return fair;
     }
 
     /**
@@ -41,7 +167,7 @@ public class MySemaphore {
      * @return True if buffer is full; False otherwise
      */
     public boolean getBufferFull() {
-        return bufferFull;
+        return status.isFull();
     }
 
     /**
@@ -49,24 +175,120 @@ public class MySemaphore {
      * @return True if buffer is empty; False otherwise
      */
     public boolean getBufferEmpty() {
-        return bufferEmpty;
+        return status.isEmpty();
+    }
+
+    /**
+     * Sets whether the buffer is currently full
+     * @param full True if the buffer is full; False otherwise
+     * @return True if this call changed the state, so exactly one thread sees each transition; False otherwise
+     */
+    public boolean updateBufferFullStatus(boolean full) {
+        return status.updateFull(full);
+    }
+
+    /**
+     * Sets whether the buffer is currently empty
+     * @param empty True if the buffer is empty; False otherwise
+     * @return True if this call changed the state, so exactly one thread sees each transition; False otherwise
+     */
+    public boolean updateBufferEmptyStatus(boolean empty) {
+        return status.updateEmpty(empty);
+    }
+
+    /**
+     * Gets the full/empty state of the buffer, along with how long it has spent in each
+     * @return The buffer status
+     */
+    public BufferStatus getStatus() {
+        return status;
     }
 
     /**
-     * Switches the state of the buffer from full to not full and vice versa -
-     * If currently True; becomes False
-     * If currently False; becomes True
+     * Takes the given number of permits if they are all available
+     * @param n The number of permits to take
+     * @return True if the permits were taken; False otherwise
      */
-    public void updateBufferFullStatus() {
-        bufferFull = !bufferFull;
+    private boolean take(int n) {
+        while (true) {
+            int available = permits.get();
+            if (available < n) {
+                return false;
+            }
+            if (permits.compareAndSet(available, available - n)) {
+                return true;
+            }
+        }
     }
 
     /**
-     * Switches the state of the buffer from empty to not empty and vice versa -
-     * If currently True; becomes False
-     * If currently False; becomes True
+     * Joins the back of the queue and parks until this thread is first in the queue and its permits are available
+     * @param n The number of permits to acquire
+     * @param timed True if the wait should give up after nanos
+     * @param nanos The maximum time to wait, if timed
+     * @return True if the permits were acquired; False if the time ran out first
      */
-    public void updateBufferEmptyStatus() {
-        bufferEmpty = !bufferEmpty;
+    private boolean acquireQueued(int n, boolean timed, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        FlightEvents.SemaphoreWait event = FlightEvents.beginSemaphoreWait();
+        boolean acquired = false;
+        Waiter waiter = new Waiter(n);
+        synchronized (this) {
+            queue.addLast(waiter);
+            numWaiters = queue.size(); // Published before re-checking so a release will see and wake us
+        }
+        int queueLength = numWaiters;
+        try {
+            while (true) {
+                if (isFirst(waiter) && take(n)) {
+                    acquired = true;
+                    return true;
+                }
+                if (timed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    WaitQueue.park(this, remaining);
+                }
+                else {
+                    WaitQueue.park(this, 0L);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                queue.remove(waiter);
+                numWaiters = queue.size();
+            }
+            if (permits.get() > 0 && numWaiters > 0) {
+                wakeFirstWaiter(); // Pass on permits this thread did not use, or could not use
+            }
+            FlightEvents.endSemaphoreWait(event, n, queueLength, fair, acquired);
+        }
+    }
+
+    /**
+     * Gets whether the given waiter is at the front of the queue
+     * @param waiter The waiter to check
+     * @return True if it is first in the queue; False otherwise
+     */
+    private synchronized boolean isFirst(Waiter waiter) {
+        return queue.peekFirst() == waiter;
+    }
+
+    /**
+     * Unparks the thread at the front of the queue
+     */
+    private void wakeFirstWaiter() {
+        Waiter first;
+        synchronized (this) {
+            first = queue.peekFirst();
+        }
+        if (first != null) {
+            LockSupport.unpark(first.thread);
+        }
     }
 }
@@ -0,0 +1,30 @@
+/**
+ * This enum represents what a User does with an element when it finds the buffer full - Blocking never loses an
+ * element but lets a User stall without limit under overload, while the other policies bound how long an add can
+ * take by shedding load, which the final report counts per User
+ * @author Alex Harlock
+ */
+public enum OverflowPolicy {
+
+    BLOCK,       // Wait for space according to the wait strategy, however long it takes
+    REJECT,      // Wait up to the overflow timeout for space, then give the element up as timed out
+    DROP_OLDEST, // Discard the oldest element in the buffer to make space for the new one - never one of a higher lane
+    DROP_NEWEST; // Discard the new element straight away
+
+    /**
+     * Gets whether the policy can give up on elements
+     * @return True for every policy except BLOCK
+     */
+    public boolean sheds() {
+        return this != BLOCK;
+    }
+
+    /**
+     * Gets the overflow policy with the given name, ignoring case, with words joined by '-' or '_'
+     * @param name The name of the policy, e.g. "drop-oldest"
+     * @return The matching policy
+     */
+    public static OverflowPolicy fromName(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
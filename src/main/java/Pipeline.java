@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents a chain of buffers with a pool of workers between each pair - Users add to the first stage's
+ * buffer, each stage's workers remove elements, transform them and add them to the next stage's buffer, and the last
+ * stage's workers discard them. End of stream is passed down the chain: once the last worker of a stage finishes, the
+ * stage closes the next buffer, so the following stage drains it and finishes in turn.
+ * Built with a Pipeline.Builder, e.g.
+ * new Pipeline.Builder(BufferEngineType.RING, 16).stage("parse", 2, 100, Processing.HASH, 200)
+ *         .stage("persist", 4, 100, Processing.SLEEP, 20).build()
+ * @author Alex Harlock
+ */
+public class Pipeline
+{
+    private final List<Stage> stages;                   // The stages, in the order elements pass through them
+    private final int batchSize;                        // Maximum number of elements a worker moves at once
+    private final LongAdder checksum = new LongAdder(); // Sum of every element leaving the last stage, so the work is kept
+    private long startNanos;                            // System.nanoTime() at which the workers were started
+
+    /**
+     * A step of the pipeline - Its input buffer and the workers removing from it
+     */
+    private static final class Stage {
+        private final String name;          // Name shown in the report, e.g. "parse"
+        private final int numWorkers;       // Number of workers removing from the input buffer
+        private final BufferEngine input;   // Buffer the stage's workers remove from
+        private final Processing transform; // Work done with each element before passing it on
+        private final int cost;             // Rounds of hashing, or microseconds of waiting, per element
+        private final AtomicInteger running = new AtomicInteger();           // Workers not yet finished
+        private final List<StageWorker> workers = new ArrayList<>();         // The stage's workers, once started
+
+        Stage(String name, int numWorkers, BufferEngine input, Processing transform, int cost) {
+            this.name = name;
+            this.numWorkers = numWorkers;
+            this.input = input;
+            this.transform = transform;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * Builds a pipeline one stage at a time
+     */
+    public static class Builder {
+        private final BufferEngineType bufferEngineType;    // Implementation backing every stage's buffer
+        private final int batchSize;                        // Maximum number of elements a worker moves at once
+        private final List<Stage> stages = new ArrayList<>(); // The stages added so far
+
+        /**
+         * A builder for a pipeline with no stages yet
+         * @param bufferEngineType Implementation backing every stage's buffer
+         * @param batchSize Maximum number of elements a worker moves at once
+         */
+        public Builder(BufferEngineType bufferEngineType, int batchSize) {
+            this.bufferEngineType = bufferEngineType;
+            this.batchSize = Math.max(1, batchSize);
+        }
+
+        /**
+         * Adds a stage after the stages added so far
+         * @param name Name shown in the report, e.g. "parse"
+         * @param numWorkers Number of workers removing from the stage's buffer
+         * @param bufferCapacity Maximum capacity of the stage's buffer
+         * @param transform Work done with each element before passing it on
+         * @param cost Rounds of hashing for HASH, or microseconds of waiting for SLEEP
+         * @return This builder
+         */
+        public Builder stage(String name, int numWorkers, int bufferCapacity, Processing transform, int cost) {
+            if (numWorkers < 1 || bufferCapacity < 1) {
+                throw new IllegalArgumentException("Stage " + name + " needs at least one worker and a capacity of at least 1");
+            }
+            stages.add(new Stage(name, numWorkers, bufferEngineType.create(bufferCapacity), transform, cost));
+            return this;
+        }
+
+        /**
+         * Adds the stages described by a comma separated list of name:workers[:capacity[:transform[:cost]]], e.g.
+         * "parse:2:100:hash:200,transform:4,persist:1:50:sleep:20"
+         * @param spec The list of stages
+         * @param defaultCapacity Capacity of a stage's buffer when the stage does not give one
+         * @return This builder
+         */
+        public Builder stages(String spec, int defaultCapacity) {
+            for (String stage : spec.split(",")) {
+                String[] parts = stage.trim().split(":");
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("Expected name:workers[:capacity[:transform[:cost]]] but got " + stage);
+                }
+                stage(parts[0].trim(), Integer.parseInt(parts[1].trim()),
+                        (parts.length > 2) ? Integer.parseInt(parts[2].trim()) : defaultCapacity,
+                        (parts.length > 3) ? Processing.fromName(parts[3]) : Processing.NONE,
+                        (parts.length > 4) ? Integer.parseInt(parts[4].trim()) : 0);
+            }
+            return this;
+        }
+
+        /**
+         * Builds the pipeline
+         * @return A new pipeline whose buffers are empty and whose workers have not started
+         */
+        public Pipeline build() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("A pipeline needs at least one stage");
+            }
+            return new Pipeline(new ArrayList<>(stages), batchSize);
+        }
+    }
+
+    /**
+     * A worker of one stage - Removes elements from the stage's buffer until it is closed and empty, transforms them
+     * and adds them to the next stage's buffer
+     */
+    private final class StageWorker implements Runnable {
+        private final Stage stage;                        // The stage the worker belongs to
+        private final BufferEngine output;                // The next stage's buffer, or null for the last stage
+        private final Histogram occupancy = new Histogram(); // Input buffer occupancy seen before each removal
+        private long numElementsMoved;                    // Number of elements the worker has passed on
+        private long busyNanos;                           // Time spent transforming elements
+        private long finishNanos;                         // System.nanoTime() at which the worker finished
+
+        StageWorker(Stage stage, BufferEngine output) {
+            this.stage = stage;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            int[] batch = new int[batchSize];
+            long sum = 0;
+            try {
+                while (true) {
+                    occupancy.record(stage.input.getNumElementsInBuffer());
+                    int count = stage.input.drainTo(batch, batchSize);
+                    if (count == 0) {
+                        batch[0] = stage.input.take(); // Sleep until an element is added or the buffer is closed
+                        count = 1;
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        batch[i] = (int) stage.transform.process(batch[i], stage.cost);
+                    }
+                    busyNanos += System.nanoTime() - start;
+                    if (output == null) {
+                        for (int i = 0; i < count; i++) {
+                            sum += batch[i];
+                        }
+                    }
+                    else {
+                        passOn(batch, count);
+                    }
+                    numElementsMoved += count;
+                }
+            } catch (BufferClosedException e) {
+                // End of stream - every element of this stage has been removed
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                checksum.add(sum);
+                finishNanos = System.nanoTime();
+                if (stage.running.decrementAndGet() == 0 && output != null) {
+                    output.close(); // The last worker of this stage passes end of stream on
+                }
+            }
+        }
+
+        /**
+         * Adds a batch to the next stage's buffer, waiting for space whenever it is full
+         * @param batch Array holding the elements, from index 0
+         * @param count The number of elements
+         */
+        private void passOn(int[] batch, int count) throws InterruptedException {
+            int added = 0;
+            while (added < count) {
+                added += output.addBatch(batch, added, count - added);
+                if (added < count) {
+                    output.put(batch[added++]); // Sleep until the next stage makes space
+                }
+            }
+        }
+    }
+
+    /**
+     * A pipeline of the given stages
+     * @param stages The stages, in the order elements pass through them
+     * @param batchSize Maximum number of elements a worker moves at once
+     */
+    private Pipeline(List<Stage> stages, int batchSize) {
+        this.stages = stages;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the buffer Users add to
+     * @return The first stage's buffer
+     */
+    public BufferEngine getInput() {
+        return stages.get(0).input;
+    }
+
+    /**
+     * Starts every stage's workers
+     * @param executor Executor the workers are run on
+     * @return The completion of each worker - Once every worker has completed, the pipeline is drained
+     */
+    public List<Future<?>> start(ExecutorService executor) {
+        startNanos = System.nanoTime();
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            BufferEngine output = (i + 1 < stages.size()) ? stages.get(i + 1).input : null;
+            stage.running.set(stage.numWorkers);
+            for (int j = 0; j < stage.numWorkers; j++) {
+                StageWorker worker = new StageWorker(stage, output);
+                stage.workers.add(worker);
+                running.add(executor.submit(worker));
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Gets the number of workers across every stage, each of which runs until its stage is drained
+     * @return The number of workers
+     */
+    public int getNumWorkers() {
+        int workers = 0;
+        for (Stage stage : stages) {
+            workers += stage.numWorkers;
+        }
+        return workers;
+    }
+
+    /**
+     * Gets the number of elements left in every stage's buffer, which is 0 once the pipeline is drained
+     * @return The number of elements remaining
+     */
+    public int getNumElementsRemaining() {
+        int remaining = 0;
+        for (Stage stage : stages) {
+            remaining += stage.input.getNumElementsInBuffer();
+        }
+        return remaining;
+    }
+
+    /**
+     * Frees anything every stage's buffer holds outside the heap, once the run is over
+     */
+    public void dispose() {
+        for (Stage stage : stages) {
+            stage.input.dispose();
+        }
+    }
+
+    /**
+     * Displays for each stage its throughput, how busy its workers were transforming elements and the occupancy of
+     * its buffer - The bottleneck is the stage whose workers are busiest, and whose buffer is most often full while
+     * the following buffers are mostly empty
+     * @param endNanos System.nanoTime() at which the run finished
+     */
+    public void displaySummary(long endNanos) {
+        System.out.println("Pipeline of " + stages.size() + " stages, batch size " + batchSize + ":");
+        for (Stage stage : stages) {
+            Histogram occupancy = new Histogram();
+            long moved = 0;
+            long busy = 0;
+            long finish = startNanos;
+            for (StageWorker worker : stage.workers) {
+                occupancy.add(worker.occupancy);
+                moved += worker.numElementsMoved;
+                busy += worker.busyNanos;
+                finish = Math.max(finish, worker.finishNanos);
+            }
+            double seconds = (finish - startNanos) / 1e9;
+            BufferStatus status = stage.input.getStatus();
+            System.out.println(String.format("Stage %s (%d workers, %s %d): %d elements, %.0f elements/s, "
+                            + "workers %.1f%% busy transforming, buffer of %d occupancy %s, full %.1fms, empty %.1fms",
+                    stage.name, stage.numWorkers, stage.transform, stage.cost, moved, (seconds > 0) ? moved / seconds : 0,
+                    (finish > startNanos) ? 100.0 * busy / ((finish - startNanos) * (double) stage.numWorkers) : 0,
+                    stage.input.getBufferCapacity(), occupancy.summary(1), status.getNanosFull(endNanos) / 1e6, status.getNanosEmpty(endNanos) / 1e6));
+        }
+        System.out.println("Pipeline output checksum " + checksum.sum());
+    }
+}
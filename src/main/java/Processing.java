@@ -0,0 +1,53 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This enum represents the work a Server does with each element it removes, to model a real consumer
+ * @author Alex Harlock
+ */
+public enum Processing {
+
+    NONE,  // The element is discarded
+    HASH,  // CPU-bound: the element is put through cost rounds of a 64-bit hash mix
+    SLEEP; // I/O-bound: the Server waits cost microseconds, as if for a remote call, keeping its thread
+
+    /**
+     * Processes a single element
+     * @param element The element removed from the buffer
+     * @param cost Rounds of hashing for HASH, or microseconds of waiting for SLEEP
+     * @return A value derived from the element, which callers fold into a checksum so the work is not optimised away
+     */
+    public long process(int element, int cost) throws InterruptedException {
+        switch (this) {
+            case HASH:
+                long x = element;
+                for (int i = 0; i < cost; i++) {
+                    x += 0x9E3779B97F4A7C15L; // SplitMix64
+                    x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+                    x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+                    x ^= x >>> 31;
+                }
+                return x;
+            case SLEEP:
+                long deadline = System.nanoTime() + cost * 1_000L;
+                for (long remaining = cost * 1_000L; remaining > 0; remaining = deadline - System.nanoTime()) {
+                    LockSupport.parkNanos(this, remaining); // May return early, so park again for what is left
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                return element;
+            case NONE:
+            default:
+                return element;
+        }
+    }
+
+    /**
+     * Gets the processing with the given name, ignoring case
+     * @param name The name of the processing, e.g. "hash"
+     * @return The matching processing
+     */
+    public static Processing fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class represents a client's connection to a BufferNode - Requests are encoded into a send buffer and only
+ * written when flushed, so a client can pipeline several requests per write, and responses are read back one at a
+ * time in the order the requests were sent
+ * @author Alex Harlock
+ */
+public class RemoteConnection implements AutoCloseable
+{
+    private final SocketChannel channel;  // Blocking connection to the node
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BufferProtocol.MAX_FRAME_BYTES); // Requests not yet written
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BufferProtocol.MAX_FRAME_BYTES);  // Bytes read, in read mode
+    private final int[] elements = new int[BufferProtocol.MAX_BATCH]; // Elements of the last ELEMENTS response
+    private int count;                    // Accepted count of the last ADDED, or element count of the last ELEMENTS
+    private long requestsSent = 0;        // Number of requests sent
+    private long flushes = 0;             // Number of writes, each carrying one or more requests
+
+    /**
+     * Connects to a node
+     * @param host The node's host name or address
+     * @param port The node's port
+     */
+    public RemoteConnection(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.flip(); // Nothing read yet
+    }
+
+    /**
+     * Queues an ADD request
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added, at most BufferProtocol.MAX_BATCH
+     */
+    public void sendAdd(int[] src, int off, int len) throws IOException {
+        reserve(BufferProtocol.HEADER_BYTES + 4 + 4 * len);
+        out.putInt(5 + 4 * len).put(BufferProtocol.ADD).putInt(len);
+        for (int i = 0; i < len; i++) {
+            out.putInt(src[off + i]);
+        }
+        requestsSent++;
+    }
+
+    /**
+     * Queues a REMOVE request
+     * @param max Maximum number of elements to remove
+     */
+    public void sendRemove(int max) throws IOException {
+        reserve(BufferProtocol.HEADER_BYTES + 4);
+        out.putInt(5).put(BufferProtocol.REMOVE).putInt(Math.min(max, BufferProtocol.MAX_BATCH));
+        requestsSent++;
+    }
+
+    /**
+     * Queues a CLOSE request, saying this producer has finished adding
+     */
+    public void sendClose() throws IOException {
+        reserve(BufferProtocol.HEADER_BYTES);
+        out.putInt(1).put(BufferProtocol.CLOSE);
+        requestsSent++;
+    }
+
+    /**
+     * Writes every queued request to the node
+     */
+    public void flush() throws IOException {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+        flushes++;
+    }
+
+    /**
+     * Reads the response to the oldest request not yet answered, flushing any queued requests first
+     * @return The response's opcode - ADDED and ELEMENTS leave their count in getCount() and ELEMENTS its elements
+     *         in getElements()
+     * @throws IOException If the node answered with ERROR, or the connection failed
+     */
+    public byte readResponse() throws IOException {
+        flush();
+        fill(4);
+        int length = in.getInt();
+        fill(length);
+        byte opcode = in.get();
+        switch (opcode) {
+            case BufferProtocol.ADDED:
+                count = in.getInt();
+                break;
+            case BufferProtocol.ELEMENTS:
+                count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    elements[i] = in.getInt();
+                }
+                break;
+            case BufferProtocol.ERROR:
+                byte[] message = new byte[in.getInt()];
+                in.get(message);
+                throw new IOException("Buffer node error: " + new String(message, StandardCharsets.UTF_8));
+            default:
+                count = 0;
+                break;
+        }
+        return opcode;
+    }
+
+    /**
+     * Gets whether a whole response has already been read from the node, so readResponse() will not wait - Lets a
+     * client handle every response that has arrived before sending its next requests in one write
+     * @return True if a response is waiting; False otherwise
+     */
+    public boolean hasResponse() {
+        return in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position());
+    }
+
+    /**
+     * Gets the count carried by the last response
+     * @return Elements accepted for ADDED, elements returned for ELEMENTS, 0 otherwise
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the elements carried by the last ELEMENTS response
+     * @return Array holding the elements from index 0, valid until the next response is read
+     */
+    public int[] getElements() {
+        return elements;
+    }
+
+    /**
+     * Gets the mean number of requests carried by each write, which shows how well requests are pipelined
+     * @return Requests sent per write
+     */
+    public double getRequestsPerFlush() {
+        return (flushes == 0) ? 0 : (double) requestsSent / flushes;
+    }
+
+    /**
+     * Gets the number of requests sent
+     * @return The number of requests
+     */
+    public long getRequestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * Closes the connection
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Makes room in the send buffer for a request, writing queued requests out if needed
+     * @param bytes The size of the request
+     */
+    private void reserve(int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Reads from the node until at least the given number of bytes are available
+     * @param bytes The number of bytes needed
+     */
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("Buffer node closed the connection");
+            }
+        }
+        in.flip();
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+
+/**
+ * This class represents a server removing elements from a buffer served by a BufferNode, possibly in another
+ * process - Up to a window of REMOVE requests are kept in flight on the Server's connection, and the Server removes
+ * until the node answers CLOSED, meaning the buffer is closed and drained
+ * @author Alex Harlock
+ */
+public class RemoteServer implements Runnable
+{
+    private final int id;                     // Id corresponding to the Servers thread
+    private final String host;                // Host name or address of the node
+    private final int port;                   // Port of the node
+    private final int batchSize;              // Maximum number of elements per REMOVE request
+    private final int window;                 // Maximum number of REMOVE requests in flight
+    private final WaitStrategy waitStrategy;  // What the Server does after the node finds the buffer empty
+    private final ElementProcessor processor; // Work done with the removed elements, or null to discard them
+    private long elementsRemoved = 0;         // Number of elements the node has removed for the Server
+    private long emptyRemoves = 0;            // Number of REMOVE requests that found the buffer empty
+    private double requestsPerFlush = 0;      // Mean number of requests carried by each write
+    private long finishNanos = 0;             // System.nanoTime() at which the Server finished
+    private long startNanos = 0;              // System.nanoTime() at which the Server started
+
+    /**
+     * A remote Server removing elements until the buffer is closed and drained
+     * @param id        Servers id corresponding to its thread number
+     * @param host      Host name or address of the node
+     * @param port      Port of the node
+     * @param batchSize Maximum number of elements per REMOVE request
+     * @param window    Maximum number of REMOVE requests in flight
+     * @param waitStrategy What to do after the node finds the buffer empty
+     * @param processor Work to do with the removed elements, or null to discard them
+     */
+    public RemoteServer(int id, String host, int port, int batchSize, int window, WaitStrategy waitStrategy,
+                        ElementProcessor processor) {
+        this.id = id + 1;
+        this.host = host;
+        this.port = port;
+        this.batchSize = Math.max(1, Math.min(batchSize, BufferProtocol.MAX_BATCH));
+        this.window = Math.max(1, window);
+        this.waitStrategy = waitStrategy;
+        this.processor = processor;
+    }
+
+    /**
+     * Runs the Server until the node reports the buffer closed and drained
+     */
+    @Override
+    public void run() {
+        startNanos = System.nanoTime();
+        try (RemoteConnection connection = new RemoteConnection(host, port)) {
+            remove_elements(connection);
+            requestsPerFlush = connection.getRequestsPerFlush();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            finishNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Keeps up to a window of REMOVE requests in flight until the node answers CLOSED, then collects the answers to
+     * the requests still in flight
+     * @param connection The connection to the node
+     */
+    private void remove_elements(RemoteConnection connection) throws IOException, InterruptedException {
+        int inFlight = 0;
+        boolean closed = false;
+        int attempt = 0;
+        while (true) {
+            while (!closed && inFlight < window) {
+                connection.sendRemove(batchSize);
+                inFlight++;
+            }
+            if (inFlight == 0) {
+                return;
+            }
+            boolean empty = false;
+            do { // Handle every response that has arrived, then send the next requests together
+                byte opcode = connection.readResponse();
+                inFlight--;
+                if (opcode == BufferProtocol.CLOSED) {
+                    closed = true; // End of the stream - stop asking for more
+                    continue;
+                }
+                if (opcode != BufferProtocol.ELEMENTS) {
+                    throw new IOException("Expected ELEMENTS but got " + BufferProtocol.nameOf(opcode));
+                }
+                int removed = connection.getCount();
+                if (removed == 0) {
+                    emptyRemoves++;
+                    empty = true;
+                    continue;
+                }
+                elementsRemoved += removed;
+                if (processor != null) {
+                    processor.process(connection.getElements(), removed);
+                }
+            } while (connection.hasResponse());
+            if (empty && !closed) {
+                waitStrategy.idle(attempt++); // The buffer is empty - back off before asking again
+            }
+            else {
+                attempt = 0;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of elements the node has removed for the Server
+     * @return The number of elements removed
+     */
+    public long getNumElementsRemoved() {
+        return elementsRemoved;
+    }
+
+    /**
+     * Gets the number of REMOVE requests that found the buffer empty
+     * @return The number of empty removes
+     */
+    public long getEmptyRemoves() {
+        return emptyRemoves;
+    }
+
+    /**
+     * Gets the mean number of requests carried by each write to the node
+     * @return Requests sent per write
+     */
+    public double getRequestsPerFlush() {
+        return requestsPerFlush;
+    }
+
+    /**
+     * Gets the Server's throughput over its connection
+     * @return Elements removed per second, from starting to finishing
+     */
+    public double getElementsPerSecond() {
+        return (finishNanos > startNanos) ? elementsRemoved / ((finishNanos - startNanos) / 1e9) : 0;
+    }
+
+    /**
+     * Gets when the Server finished removing elements
+     * @return The System.nanoTime() at which the Server finished, or 0 if it has not
+     */
+    public long getFinishNanos() {
+        return finishNanos;
+    }
+
+    /**
+     * Gets the Servers id number
+     * @return An integer equal to the Servers id
+     */
+    public int getId() {
+        return id;
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * This class represents a user adding elements to a buffer served by a BufferNode, possibly in another process -
+ * Up to a window of ADD requests are kept in flight on the User's connection, so throughput is bounded by bandwidth
+ * rather than by a round trip per batch. Elements the node could not take because the buffer was full are sent
+ * again, after the in-flight requests, so a remote User does not keep its elements in order
+ * @author Alex Harlock
+ */
+public class RemoteUser implements Runnable
+{
+    private final int id;                    // Id corresponding to the Users thread
+    private final WorkPool work;             // Pool the User claims the elements it adds from
+    private final String host;               // Host name or address of the node
+    private final int port;                  // Port of the node
+    private final int batchSize;             // Maximum number of elements per ADD request
+    private final int window;                // Maximum number of ADD requests in flight
+    private final WaitStrategy waitStrategy; // What the User does after the node finds the buffer full
+    private long next = 0;                   // Index of the next element of the current claim to be sent
+    private long claimEnd = 0;               // Index one past the last element of the current claim
+    private long elementsAdded = 0;          // Number of elements the node has added for the User
+    private long rejectedAdds = 0;           // Number of ADD requests the node could not take in full
+    private double requestsPerFlush = 0;     // Mean number of requests carried by each write
+    private long finishNanos = 0;            // System.nanoTime() at which the User finished
+    private long startNanos = 0;             // System.nanoTime() at which the User started
+
+    /**
+     * A remote User adding elements claimed from a pool, which may be shared with other Users
+     * @param id        Users id corresponding to its thread number
+     * @param work      Pool of elements to claim from
+     * @param host      Host name or address of the node
+     * @param port      Port of the node
+     * @param batchSize Maximum number of elements per ADD request
+     * @param window    Maximum number of ADD requests in flight
+     * @param waitStrategy What to do after the node finds the buffer full
+     */
+    public RemoteUser(int id, WorkPool work, String host, int port, int batchSize, int window, WaitStrategy waitStrategy) {
+        this.id = id + 1;
+        this.work = work;
+        this.host = host;
+        this.port = port;
+        this.batchSize = Math.max(1, Math.min(batchSize, BufferProtocol.MAX_BATCH));
+        this.window = Math.max(1, window);
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Runs the User until its pool of elements is exhausted and the node has acknowledged its CLOSE
+     */
+    @Override
+    public void run() {
+        startNanos = System.nanoTime();
+        try (RemoteConnection connection = new RemoteConnection(host, port)) {
+            add_elements(connection);
+            connection.sendClose();
+            expect(connection.readResponse(), BufferProtocol.CLOSE_ACK);
+            requestsPerFlush = connection.getRequestsPerFlush();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            finishNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Sends every element claimed from the pool, keeping up to a window of requests in flight and resending the
+     * elements of any request the node could not take in full
+     * @param connection The connection to the node
+     */
+    private void add_elements(RemoteConnection connection) throws IOException, InterruptedException {
+        ArrayDeque<int[]> inFlight = new ArrayDeque<>(); // Batches sent and not yet answered, oldest first
+        ArrayDeque<int[]> retry = new ArrayDeque<>();    // Batches, or their remainders, the node could not take
+        int attempt = 0;
+        while (true) {
+            while (inFlight.size() < window) {
+                int[] batch = retry.isEmpty() ? nextBatch() : retry.poll();
+                if (batch == null) {
+                    break;
+                }
+                connection.sendAdd(batch, 0, batch.length);
+                inFlight.add(batch);
+            }
+            if (inFlight.isEmpty()) {
+                return;
+            }
+            boolean full = false;
+            do { // Handle every response that has arrived, then send the next requests together
+                expect(connection.readResponse(), BufferProtocol.ADDED);
+                int[] batch = inFlight.poll();
+                int accepted = connection.getCount();
+                elementsAdded += accepted;
+                if (accepted < batch.length) {
+                    rejectedAdds++;
+                    retry.add(Arrays.copyOfRange(batch, accepted, batch.length));
+                    full |= (accepted == 0);
+                }
+            } while (connection.hasResponse());
+            if (full) {
+                waitStrategy.idle(attempt++); // The buffer is full - back off before sending more
+            }
+            else {
+                attempt = 0;
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch of elements from the current claim, claiming more from the pool when it runs out - The
+     * element index is used as the element's value
+     * @return The batch, or null once the pool is exhausted
+     */
+    private int[] nextBatch() {
+        if (next >= claimEnd) {
+            long first = work.claim();
+            if (first < 0) {
+                return null;
+            }
+            next = first;
+            claimEnd = first + work.getClaimSize(first);
+        }
+        int[] batch = new int[(int) Math.min(batchSize, claimEnd - next)];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = (int) next++;
+        }
+        return batch;
+    }
+
+    /**
+     * Checks a response is the one expected
+     * @param opcode The response's opcode
+     * @param expected The opcode expected
+     */
+    private static void expect(byte opcode, byte expected) throws IOException {
+        if (opcode != expected) {
+            throw new IOException("Expected " + BufferProtocol.nameOf(expected) + " but got " + BufferProtocol.nameOf(opcode));
+        }
+    }
+
+    /**
+     * Gets the number of elements the node has added for the User
+     * @return The number of elements added
+     */
+    public long getNumberOfElementsAdded() {
+        return elementsAdded;
+    }
+
+    /**
+     * Gets the number of ADD requests the node could not take in full because the buffer was full
+     * @return The number of rejected requests
+     */
+    public long getRejectedAdds() {
+        return rejectedAdds;
+    }
+
+    /**
+     * Gets the mean number of requests carried by each write to the node
+     * @return Requests sent per write
+     */
+    public double getRequestsPerFlush() {
+        return requestsPerFlush;
+    }
+
+    /**
+     * Gets the User's throughput over its connection
+     * @return Elements added per second, from starting to finishing
+     */
+    public double getElementsPerSecond() {
+        return (finishNanos > startNanos) ? elementsAdded / ((finishNanos - startNanos) / 1e9) : 0;
+    }
+
+    /**
+     * Gets when the User finished adding elements
+     * @return The System.nanoTime() at which the User finished, or 0 if it has not
+     */
+    public long getFinishNanos() {
+        return finishNanos;
+    }
+
+    /**
+     * Gets the Users id number
+     * @return An integer equal to the Users id
+     */
+    public int getId() {
+        return id;
+    }
+}
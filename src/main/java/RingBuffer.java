@@ -0,0 +1,185 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents a buffer backed by a preallocated int[] ring -
+ * Users and Servers claim slots with a compare-and-set on the tail and head positions, and each slot carries a
+ * sequence number saying whether it is ready to be written or read. No objects are allocated per element.
+ * Adding or removing one element is lock-free: a thread that loses a compare-and-set retries, and none waits on
+ * another. A batch is not - it claims a run of slots with one compare-and-set, then waits (spinning, then yielding)
+ * for any slot in the run another thread has claimed but not yet finished writing or reading
+ * @author Alex Harlock
+ */
+public class RingBuffer extends AbstractRingBuffer
+{
+    private static final int SPINS_BEFORE_YIELD = 100; // Spins waiting for a slot before yielding the core
+
+    private final int[] elements;                // Slots holding the elements on the buffer
+    private final AtomicLongArray sequences;     // Per slot position at which it can next be written/read
+    private final AtomicLong tail = new AtomicLong(); // Position of the next element to be added
+    private final AtomicLong head = new AtomicLong(); // Position of the next element to be removed
+    private final int bufferCapacity;            // Maximum number of elements allowed on the buffer
+    private final int slots;                     // Length of the ring, at least 2 so sequence numbers never collide
+
+    /**
+     * A ring buffer acting as a queue, from which elements can be added and removed
+     * @param bufferCapacity The maximum capacity of the buffer
+     */
+    public RingBuffer(int bufferCapacity) {
+        super(bufferCapacity, 0L);
+        this.bufferCapacity = bufferCapacity;
+        this.slots = Math.max(2, bufferCapacity);
+        this.elements = new int[slots];
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Gets the number of elements currently in the buffer -
+     * Positions are read without stopping other threads so the result is clamped to [0, capacity]
+     * @return An integer value pertaining to the number of elements currently in the buffer
+     */
+    @Override
+    public int getNumElementsInBuffer() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, bufferCapacity));
+    }
+
+    /**
+     * Claims the slot at the tail and writes the element into it, without waking or logging anything
+     * @param newElement The element to be added
+     * @return True if the element was added; False if the buffer is full
+     */
+    @Override
+    boolean offer(int newElement) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position % slots);
+            long difference = sequences.get(index) - position;
+            if (slots != bufferCapacity && position - head.get() >= bufferCapacity) {
+                return false; // Ring is larger than the capacity, so the bound is checked separately
+            }
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = newElement;
+                    sequences.set(index, position + 1); // Publish the element to Servers
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0) {
+                return false; // Slot still holds an element from the previous lap
+            }
+            else {
+                position = tail.get(); // Another User claimed this position first
+            }
+        }
+    }
+
+    /**
+     * Claims the slot at the head and reads the element from it, without waking or logging anything
+     * @return The element removed, or EMPTY if the buffer is empty
+     */
+    @Override
+    long poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position % slots);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    int element = elements[index];
+                    sequences.set(index, position + slots); // Hand the slot back to Users for the next lap
+                    return element;
+                }
+                position = head.get();
+            }
+            else if (difference < 0) {
+                return EMPTY; // Slot has not been written for this lap yet
+            }
+            else {
+                position = head.get(); // Another Server claimed this position first
+            }
+        }
+    }
+
+    /**
+     * Claims a run of free slots at the tail and writes the elements into them -
+     * A slot inside the run may still be being read by a Server that has already moved the head past it,
+     * in which case this waits the few instructions until that Server hands the slot back
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added
+     */
+    @Override
+    int offerBatch(int[] src, int off, int len) {
+        long position;
+        int count;
+        do {
+            position = tail.get();
+            long space = bufferCapacity - (position - head.get());
+            if (space <= 0 || len <= 0) {
+                return 0;
+            }
+            count = (int) Math.min(len, space);
+        } while (!tail.compareAndSet(position, position + count));
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((position + i) % slots);
+            awaitSequence(index, position + i);
+            elements[index] = src[off + i];
+            sequences.set(index, position + i + 1); // Publish the element to Servers
+        }
+        return count;
+    }
+
+    /**
+     * Claims a run of written slots at the head and reads the elements from them -
+     * A slot inside the run may still be being written by a User that has already moved the tail past it,
+     * in which case this waits the few instructions until that User publishes the element
+     * @param dst Array the removed elements are written to
+     * @param off Index in dst the first removed element is written to
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    @Override
+    int pollBatch(int[] dst, int off, int max) {
+        long position;
+        int count;
+        do {
+            position = head.get();
+            long available = tail.get() - position;
+            if (available <= 0 || max <= 0) {
+                return 0;
+            }
+            count = (int) Math.min(max, available);
+        } while (!head.compareAndSet(position, position + count));
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((position + i) % slots);
+            awaitSequence(index, position + i + 1);
+            dst[off + i] = elements[index];
+            sequences.set(index, position + i + slots); // Hand the slot back to Users for the next lap
+        }
+        return count;
+    }
+
+    /**
+     * Waits for the thread that claimed a slot on the previous step to finish with it -
+     * Spins briefly, then yields so that thread can run even if it shares a core with this one
+     * @param index The index of the slot
+     * @param sequence The sequence number the slot will have once it is ready
+     */
+    private void awaitSequence(int index, long sequence) {
+        int spins = 0;
+        while (sequences.get(index) != sequence) {
+            if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            }
+            else {
+                Thread.yield();
+            }
+        }
+    }
+}
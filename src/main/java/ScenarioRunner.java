@@ -0,0 +1,208 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * This class represents a headless run of the program over a sweep of buffer capacities and user/server counts -
+ * Each configuration is run for a number of untimed warmup trials and then a number of timed trials, and one CSV row
+ * of timing and throughput is written per configuration.
+ * Parameters are given as key=value arguments or in a scenario properties file, e.g.
+ * capacity=1..1024*4 users=1,2,4,8 servers=1..4 elements=1000000 trials=5 warmup=2 out=results.csv
+ * where a..b counts from a to b, a..b*f multiplies by f each step and lists are comma separated.
+ * Any other key is passed on as a setting, e.g. engine=ring batch=16, except that with arrival=constant or
+ * arrival=poisson the rate key is swept too, e.g. rate=10000..1280000*2, to find where end-to-end latency collapses
+ * @author Alex Harlock
+ */
+public class ScenarioRunner {
+
+    private static final String CSV_HEADER = "engine,batch,exec,work,wait,process,process_cost,process_threads,capacity,users,servers,elements,trials,"
+            + "median_ms,mean_ms,stddev_ms,min_ms,max_ms,median_elements_per_sec,median_cpu_ms,cpu_ns_per_element,"
+            + "arrival,rate,median_e2e_p50_us,median_e2e_p99_us,elements_remaining,overflow,median_add_p99_us,dropped,timed_out,flow,engine_used";
+
+    private final int[] capacities;   // Buffer capacities to run
+    private final int[] userCounts;   // Numbers of users to run
+    private final int[] serverCounts; // Numbers of servers to run
+    private final int[] rates;        // Open-loop arrival rates to run, or a single 0 for the "rate" setting as given
+    private final int numElements;    // Total number of elements added in each trial
+    private final int trials;         // Number of timed trials per configuration
+    private final int warmup;         // Number of untimed trials run before the timed ones
+    private final String out;         // File the CSV is written to, or null for standard output
+
+    /**
+     * A scenario read from key=value arguments, or from the file named by a scenario=file argument
+     * @param args The command line arguments
+     */
+    public ScenarioRunner(String[] args) throws IOException {
+        Properties scenario = new Properties();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 1) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            String key = arg.substring(0, split).trim();
+            String value = arg.substring(split + 1).trim();
+            if (key.equals("scenario")) {
+                try (Reader reader = new FileReader(value)) {
+                    scenario.load(reader);
+                }
+            }
+            else {
+                scenario.setProperty(key, value);
+            }
+        }
+        capacities = parseRange(scenario.getProperty("capacity", "100"));
+        userCounts = parseRange(scenario.getProperty("users", "1"));
+        serverCounts = parseRange(scenario.getProperty("servers", "1"));
+        rates = scenario.containsKey("rate") ? parseRange(scenario.getProperty("rate")) : new int[]{0};
+        numElements = Integer.parseInt(scenario.getProperty("elements", "100000").trim());
+        trials = Math.max(1, Integer.parseInt(scenario.getProperty("trials", "5").trim()));
+        warmup = Math.max(0, Integer.parseInt(scenario.getProperty("warmup", "1").trim()));
+        out = scenario.getProperty("out");
+
+        for (String key : scenario.stringPropertyNames()) {
+            if (!Arrays.asList("capacity", "users", "servers", "rate", "elements", "trials", "warmup", "out").contains(key)) {
+                Settings.set(key, scenario.getProperty(key).trim());
+            }
+        }
+    }
+
+    /**
+     * Runs every configuration in the sweep, writing one CSV row for each
+     */
+    public void run() throws IOException, InterruptedException {
+        try (PrintWriter csv = (out == null) ? new PrintWriter(System.out, true) : new PrintWriter(out)) {
+            csv.println(CSV_HEADER);
+            for (int capacity : capacities) {
+                for (int numUsers : userCounts) {
+                    for (int numServers : serverCounts) {
+                        for (int rate : rates) {
+                            if (rate > 0) {
+                                Settings.set("rate", Integer.toString(rate));
+                            }
+                            csv.println(runConfiguration(capacity, numUsers, numServers));
+                            csv.flush();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the warmup and timed trials of one configuration
+     * @param capacity Buffer capacity
+     * @param numUsers Number of users
+     * @param numServers Number of servers
+     * @return The configuration's CSV row
+     */
+    private String runConfiguration(int capacity, int numUsers, int numServers) throws InterruptedException {
+        for (int i = 0; i < warmup; i++) {
+            new ListCount(capacity, numUsers, numServers, numElements, false);
+        }
+        double[] millis = new double[trials];
+        double[] cpuMillis = new double[trials];
+        double[] p50Micros = new double[trials];
+        double[] p99Micros = new double[trials];
+        double[] addP99Micros = new double[trials];
+        long remaining = 0;
+        long dropped = 0;
+        long timedOut = 0;
+        String engineUsed = "";
+        for (int i = 0; i < trials; i++) {
+            ListCount trial = new ListCount(capacity, numUsers, numServers, numElements, false);
+            engineUsed = trial.getEngineUsed().name().toLowerCase();
+            millis[i] = trial.getRunNanos() / 1e6;
+            cpuMillis[i] = trial.getCpuNanos() / 1e6;
+            Histogram endToEnd = trial.getEndToEndLatency();
+            p50Micros[i] = endToEnd.getValueAtPercentile(50) / 1e3;
+            p99Micros[i] = endToEnd.getValueAtPercentile(99) / 1e3;
+            remaining += trial.getNumElementsRemaining();
+            addP99Micros[i] = trial.getAddLatency().getValueAtPercentile(99) / 1e3;
+            dropped += trial.getDroppedElements();
+            timedOut += trial.getTimedOutElements();
+        }
+        double median = median(millis);
+        double cpuMedian = median(cpuMillis);
+        double mean = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double m : millis) {
+            mean += m;
+            min = Math.min(min, m);
+            max = Math.max(max, m);
+        }
+        mean /= trials;
+        double variance = 0;
+        for (double m : millis) {
+            variance += (m - mean) * (m - mean);
+        }
+        double stddev = (trials > 1) ? Math.sqrt(variance / (trials - 1)) : 0;
+        double throughput = (median > 0) ? numElements / (median / 1000) : 0;
+
+        System.err.println(String.format("capacity=%d users=%d servers=%d: median %.2fms, %.0f elements/s",
+                capacity, numUsers, numServers, median, throughput));
+        String arrival = Settings.getString("arrival", "closed");
+        return String.format("%s,%d,%s,%s,%s,%s,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.0f,%.3f,%.1f,%s,%s,%.1f,%.1f,%d,%s,%.1f,%d,%d,%b,%s",
+                Settings.getString("engine", "list"), Settings.getInt("batch", 1), Settings.getString("exec", "dedicated"),
+                Settings.getString("work", "static"), Settings.getString("wait", "block"),
+                Settings.getString("process", "none"), Settings.getInt("process.cost", 100),
+                Settings.getInt("process.threads", 0),
+                capacity, numUsers, numServers, numElements, trials,
+                median, mean, stddev, min, max, throughput, cpuMedian, cpuMedian * 1e6 / numElements,
+                arrival, arrival.equals("closed") ? "" : Settings.getString("rate", "10000"),
+                median(p50Micros), median(p99Micros), remaining, Settings.getString("overflow", "block"),
+                median(addP99Micros), dropped, timedOut, Settings.getBoolean("flow", false), engineUsed);
+    }
+
+    /**
+     * Sorts a set of measurements and gets their median
+     * @param values The measurements, which are sorted in place
+     * @return The middle value, or the mean of the two middle values
+     */
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        int middle = values.length / 2;
+        return (values.length % 2 == 1) ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * Parses a comma separated list of values and ranges - a..b counts up from a to b and a..b*f multiplies by f
+     * @param spec The list, e.g. "1,2,4" or "1..8" or "16..4096*4"
+     * @return The values, in the order given
+     */
+    static int[] parseRange(String spec) {
+        ArrayList<Integer> values = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            int dots = part.indexOf("..");
+            if (dots < 0) {
+                values.add(Integer.parseInt(part));
+                continue;
+            }
+            int from = Integer.parseInt(part.substring(0, dots).trim());
+            String rest = part.substring(dots + 2);
+            int factor = 0;
+            int star = rest.indexOf('*');
+            if (star >= 0) {
+                factor = Integer.parseInt(rest.substring(star + 1).trim());
+                rest = rest.substring(0, star);
+            }
+            int to = Integer.parseInt(rest.trim());
+            if (from < 1 || to < from || (star >= 0 && factor < 2)) {
+                throw new IllegalArgumentException("Invalid range " + part);
+            }
+            for (long value = from; value <= to; value = (factor == 0) ? value + 1 : value * factor) {
+                values.add((int) value);
+            }
+        }
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
@@ -1,56 +1,238 @@
+import java.util.concurrent.TimeUnit;
+
 /**
- * This class represents a server removing elements from a buffer
+ * This class represents a server removing elements from a buffer - It is a task rather than a thread, so it can be
+ * run on a dedicated, pooled or virtual thread
  * @author Alex Harlock
  */
-public class Server extends Thread implements Runnable
+public class Server implements Runnable
 {
     private final int id;                    // Id corresponding to the Servers thread
     private int elementsRemoved = 0;         // Number of elements the Server has removed from the buffer
     private final long elementsToRemove;     // The number of elements the server will remove to create an even distribution of removals
-    public final Buffer buffer;              // Instance of the buffer being added to
-    private final int bufferCapacity;        // Maximum number of elements able to be held in the buffer
-    private boolean threadComplete = false;  // True if the thread is able to complete; False otherwise
+    public final BufferEngine buffer;        // Instance of the buffer being added to
+    private final int batchSize;             // Maximum number of elements removed from the buffer at once
+    private int batchesRemoved = 0;          // Number of successful removes, each of one or more elements
+    private final Histogram removeLatency = new Histogram(); // Nanoseconds taken by each remove, including any wait
+    private final Histogram occupancy = new Histogram();     // Number of elements in the buffer after each remove
+    private long failedRemoves = 0;          // Number of failed attempts to remove, i.e. times the buffer was found empty
+    private final WaitStrategy waitStrategy; // What the Server does after finding the buffer empty
+    private long finishNanos = 0;            // System.nanoTime() at which the Server finished
+    private final ArrivalSchedule schedule;  // Arrival times in an open-loop run, or null
+    private final Histogram endToEnd = new Histogram(); // Nanoseconds from each open-loop element's arrival time to its removal
+    private final ElementProcessor processor; // Work done with the removed elements, or null to discard them
+    private final boolean retirable;         // True if the Server can be retired before the buffer is drained
+    private volatile boolean retired = false; // True once the Server has been asked to stop removing elements
+
+    private static final long RETIRE_POLL_MILLIS = 10; // Longest a retired Server keeps waiting on an empty buffer
 
     /**
      * A Server tasked with removing elements from a given buffer
      * @param id     Servers id corresponding to its thread number
      * @param buffer Buffer to add to
-     * @param elementsToRemove Number of elements to be removed from the buffer
+     * @param elementsToRemove Number of elements to be removed from the buffer - Long.MAX_VALUE keeps the Server
+     *                         removing until the buffer is closed and drained
+     * @param batchSize Maximum number of elements to remove from the buffer at once
+     */
+    public Server(int id, long elementsToRemove, BufferEngine buffer, int batchSize) {
+        this(id, elementsToRemove, buffer, batchSize, WaitStrategy.BLOCK);
+    }
+
+    /**
+     * A Server tasked with removing elements from a given buffer, waiting in the given way while it is empty
+     * @param id     Servers id corresponding to its thread number
+     * @param buffer Buffer to add to
+     * @param elementsToRemove Number of elements to be removed from the buffer - Long.MAX_VALUE keeps the Server
+     *                         removing until the buffer is closed and drained
+     * @param batchSize Maximum number of elements to remove from the buffer at once
+     * @param waitStrategy What to do after finding the buffer empty
+     */
+    public Server(int id, long elementsToRemove, BufferEngine buffer, int batchSize, WaitStrategy waitStrategy) {
+        this(id, elementsToRemove, buffer, batchSize, waitStrategy, null, null);
+    }
+
+    /**
+     * A Server removing elements from a given buffer, which in an open-loop run also measures the latency of every
+     * element from its scheduled arrival time
+     * @param id     Servers id corresponding to its thread number
+     * @param buffer Buffer to add to
+     * @param elementsToRemove Number of elements to be removed from the buffer - Long.MAX_VALUE keeps the Server
+     *                         removing until the buffer is closed and drained
+     * @param batchSize Maximum number of elements to remove from the buffer at once
+     * @param waitStrategy What to do after finding the buffer empty
+     * @param schedule Arrival times of the elements in an open-loop run, or null
+     * @param processor Work to do with the removed elements, or null to discard them
+     */
+    public Server(int id, long elementsToRemove, BufferEngine buffer, int batchSize, WaitStrategy waitStrategy,
+                  ArrivalSchedule schedule, ElementProcessor processor) {
+        this(id, elementsToRemove, buffer, batchSize, waitStrategy, schedule, processor, false);
+    }
+
+    /**
+     * A Server removing elements from a given buffer, which in an open-loop run also measures the latency of every
+     * element from its scheduled arrival time
+     * @param id     Servers id corresponding to its thread number
+     * @param buffer Buffer to add to
+     * @param elementsToRemove Number of elements to be removed from the buffer - Long.MAX_VALUE keeps the Server
+     *                         removing until the buffer is closed and drained
+     * @param batchSize Maximum number of elements to remove from the buffer at once
+     * @param waitStrategy What to do after finding the buffer empty
+     * @param schedule Arrival times of the elements in an open-loop run, or null
+     * @param processor Work to do with the removed elements, or null to discard them
+     * @param retirable True if the Server can be retired by retire() - A blocking retirable Server waits on an
+     *                  empty buffer with a timed poll, so it notices it has been retired
      */
-    public Server(int id, long elementsToRemove, Buffer buffer) {
+    public Server(int id, long elementsToRemove, BufferEngine buffer, int batchSize, WaitStrategy waitStrategy,
+                  ArrivalSchedule schedule, ElementProcessor processor, boolean retirable) {
         this.id = id + 1;
+        this.retirable = retirable;
+        this.processor = processor;
+        this.schedule = schedule;
+        this.waitStrategy = waitStrategy;
         this.buffer = buffer;
-        bufferCapacity = buffer.getBufferCapacity();
         this.elementsToRemove = elementsToRemove;
+        this.batchSize = Math.max(1, batchSize);
     }
 
     /**
-     * Starts the Server thread execution
+     * Runs the Server until it has removed all of the elements it is expected to remove, until the buffer is
+     * closed and drained, or until it is retired
      */
     @Override
     public void run() {
+        FlightEvents.Worker event = FlightEvents.beginWorker();
+        TraceRecorder.record(TraceRecorder.START, -id, -1, 0);
+        String outcome = "interrupted";
         try {
             remove_elements();
+            outcome = retired ? "retired" : "completed";
+        } catch (BufferClosedException e) {
+            // End of the stream - every element that will ever be added has been removed
+            outcome = "closed";
         } catch (InterruptedException e) {
             e.printStackTrace();
+        } finally {
+            finishNanos = System.nanoTime();
+            TraceRecorder.record(TraceRecorder.FINISH, -id, -1, elementsRemoved);
+            FlightEvents.endWorker(event, "server", id, elementsRemoved, outcome);
         }
     }
 
     /**
-     * Removes elements from the buffer until the User threads have added all of their elements
+     * Removes elements from the buffer until the server has removed all of the elements it is expected to remove -
+     * While the buffer is empty the Server waits according to its wait strategy
      */
-    private void remove_elements() throws InterruptedException {
-        while (buffer.getNumElementsInBuffer() > 0 || !this.threadComplete) {
-            if (hasServerRemovedAllElements()) {
-                return;
-            }
-            if (buffer.attemptRemove(this)) {
-                elementsRemoved++;
+    private void remove_elements() throws InterruptedException, BufferClosedException {
+        boolean needsElements = schedule != null || (processor != null && processor.needsElements());
+        if (batchSize > 1 || needsElements) { // attemptRemove() discards the element
+            remove_batches();
+            return;
+        }
+        while (!hasServerRemovedAllElements() && !retired) {
+            long start = System.nanoTime();
+            boolean closed = false;
+            int attempt = 0;
+            while (!buffer.attemptRemove()) {
+                if (closed) {
+                    throw new BufferClosedException(); // Still empty after the last User finished
+                }
+                failedRemoves++;
+                if (waitStrategy.blocks()) {
+                    if (waitForElement() == BufferEngine.EMPTY) {
+                        return; // Retired while waiting
+                    }
+                    break;
+                }
+                closed = buffer.isClosed(); // Once closed, retry once more straight away to catch the last elements
+                if (!closed) {
+                    if (retired) {
+                        return;
+                    }
+                    waitStrategy.idle(attempt++);
+                }
             }
+            recordRemove(start, 1);
+            displayRemoveInfo(1);
+            elementsRemoved++;
+            batchesRemoved++;
             //Thread.sleep(1); // For testing buffer being frequently full
         }
     }
 
+    /**
+     * Removes elements from the buffer in batches of up to batchSize until the server has removed all of the
+     * elements it is expected to remove - While the buffer is empty the Server waits according to its wait strategy,
+     * and a blocking Server sleeps until a single element arrives
+     */
+    private void remove_batches() throws InterruptedException, BufferClosedException {
+        int[] batch = new int[batchSize];
+        while (!hasServerRemovedAllElements() && !retired) {
+            int max = (int) Math.min(batchSize, getNumElementsToRemove() - elementsRemoved);
+            long start = System.nanoTime();
+            boolean closed = false;
+            int attempt = 0;
+            int removed;
+            while ((removed = buffer.drainTo(batch, max)) == 0) {
+                if (closed) {
+                    throw new BufferClosedException(); // Still empty after the last User finished
+                }
+                failedRemoves++;
+                if (waitStrategy.blocks()) {
+                    long element = waitForElement();
+                    if (element == BufferEngine.EMPTY) {
+                        return; // Retired while waiting
+                    }
+                    batch[0] = (int) element;
+                    removed = 1;
+                    break;
+                }
+                closed = buffer.isClosed(); // Once closed, retry once more straight away to catch the last elements
+                if (!closed) {
+                    if (retired) {
+                        return;
+                    }
+                    waitStrategy.idle(attempt++);
+                }
+            }
+            recordRemove(start, removed);
+            if (schedule != null) {
+                recordEndToEnd(batch, removed);
+            }
+            displayRemoveInfo(removed);
+            if (processor != null) {
+                processor.process(batch, removed);
+            }
+            elementsRemoved += removed;
+            batchesRemoved++;
+        }
+    }
+
+    /**
+     * Sleeps until an element can be removed from the empty buffer - A retirable Server polls instead, giving up
+     * once it has been retired
+     * @return The element removed, or EMPTY if the Server was retired before one arrived
+     */
+    private long waitForElement() throws InterruptedException, BufferClosedException {
+        if (!retirable) {
+            return buffer.take();
+        }
+        long element;
+        while ((element = buffer.poll(RETIRE_POLL_MILLIS, TimeUnit.MILLISECONDS)) == BufferEngine.EMPTY) {
+            if (retired) {
+                return BufferEngine.EMPTY;
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Asks a retirable Server to stop removing elements - It finishes the remove in progress, or stops waiting for
+     * one, and then completes
+     */
+    public void retire() {
+        retired = true;
+    }
+
     /**
      * Gets whether the server has removed all of the elements it is expected to remove
      * @return True if all elements have been removed; False otherwise
@@ -60,14 +242,43 @@ public class Server extends Thread implements Runnable
     }
 
     /**
-     * Displays information about the most recent element removed from the buffer by the Server
+     * Records how long the most recent remove took and how full it left the buffer
+     * @param start The System.nanoTime() at which the remove began
+     * @param count The number of elements removed
+     */
+    private void recordRemove(long start, int count) {
+        long latency = System.nanoTime() - start;
+        removeLatency.record(latency);
+        int inBuffer = buffer.getNumElementsInBuffer();
+        occupancy.record(inBuffer);
+        TraceRecorder.record(TraceRecorder.REMOVE, -id, inBuffer, count);
+        FlightEvents.bufferOperation("remove", id, count, buffer, latency);
+    }
+
+    /**
+     * Records the latency of removed open-loop elements, from the time each was due to be added
+     * @param elements The elements removed
+     * @param count The number of elements removed
      */
-    public void displayRemoveInfo() {
-        System.out.println("Server " + id + " removed element " + (buffer.getNumElementsInBuffer()) + "/" + bufferCapacity);
+    private void recordEndToEnd(int[] elements, int count) {
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            endToEnd.record(now - schedule.getIntended(elements[i]));
+        }
     }
 
-    public void displayBufferEmpty() {
-        System.out.println("Buffer empty - web server wait");
+    /**
+     * Logs information about the most recent elements removed from the buffer by the Server -
+     * Called after the remove has released the buffer, so logging never holds up other threads
+     * @param count The number of elements removed
+     */
+    private void displayRemoveInfo(int count) {
+        if (EventLog.isEnabled()) {
+            int numElementsInBuffer = buffer.getNumElementsInBuffer();
+            for (int i = 0; i < count; i++) {
+                EventLog.serverRemoved(id, numElementsInBuffer);
+            }
+        }
     }
 
     /**
@@ -78,6 +289,47 @@ public class Server extends Thread implements Runnable
         return elementsRemoved;
     }
 
+    /**
+     * Gets the average number of elements removed from the buffer at once
+     * @return The number of elements removed divided by the number of successful removes
+     */
+    public double getAverageBatchSize() {
+        return (batchesRemoved == 0) ? 0 : (double) elementsRemoved / batchesRemoved;
+    }
+
+    /**
+     * Gets the time taken by each remove, including any time spent waiting for an element
+     * @return A histogram of remove latencies in nanoseconds
+     */
+    public Histogram getRemoveLatency() {
+        return removeLatency;
+    }
+
+    /**
+     * Gets the latency of every element removed in an open-loop run, from the time it was due to be added
+     * @return A histogram of end-to-end latencies in nanoseconds, empty in a closed-loop run
+     */
+    public Histogram getEndToEndLatency() {
+        return endToEnd;
+    }
+
+    /**
+     * Gets the number of elements in the buffer after each remove
+     * @return A histogram of buffer occupancy
+     */
+    public Histogram getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * Gets the number of attempts to remove that found the buffer empty - One per wait when blocking, or one per
+     * retry otherwise
+     * @return The number of failed attempts to remove
+     */
+    public long getFailedRemoves() {
+        return failedRemoves;
+    }
+
     /**
      * Gets the number of elements the server must remove from the buffer
      * @return An integer value equal to the number of elements that the server must remove from th buffer
@@ -87,18 +339,17 @@ public class Server extends Thread implements Runnable
     }
 
     /**
-     * Sets whether the thread can finish, following the completion of the User threads
-     * @param completionState True if all User threads have finished; False otherwise
+     * Gets when the Server finished removing elements
+     * @return The System.nanoTime() at which the Server finished, or 0 if it has not
      */
-    public void setThreadCompletionState(Boolean completionState) {
-        this.threadComplete = completionState;
+    public long getFinishNanos() {
+        return finishNanos;
     }
 
     /**
      * Gets the Servers id number
      * @return An integer equal to the Servers id
      */
-    @Override
     public long getId() {
         return id;
     }
@@ -0,0 +1,53 @@
+/**
+ * This class represents the optional run settings, read from system properties prefixed with "cw."
+ * e.g. -Dcw.engine=ring
+ * @author Alex Harlock
+ */
+public final class Settings {
+
+    private static final String PREFIX = "cw."; // Prefix separating program settings from other system properties
+
+    private Settings() {
+    }
+
+    /**
+     * Gets a setting as a String
+     * @param key The settings name, without the prefix
+     * @param defaultValue The value to use if the setting is not present
+     * @return The settings value
+     */
+    public static String getString(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    /**
+     * Gets a setting as an integer
+     * @param key The settings name, without the prefix
+     * @param defaultValue The value to use if the setting is not present
+     * @return The settings value
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Gets a setting as a boolean
+     * @param key The settings name, without the prefix
+     * @param defaultValue The value to use if the setting is not present
+     * @return The settings value
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return (value == null) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Sets a setting for the rest of the program's run, e.g. from a scenario file
+     * @param key The settings name, without the prefix
+     * @param value The settings value
+     */
+    public static void set(String key, String value) {
+        System.setProperty(PREFIX + key, value);
+    }
+}
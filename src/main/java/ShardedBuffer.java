@@ -0,0 +1,131 @@
+/**
+ * This class represents a buffer split into several independent RingBuffer shards -
+ * Each thread adds to and removes from its own home shard, so with many Users and Servers they mostly touch
+ * different memory. A thread only visits other shards when its home shard is full (Users) or empty (Servers),
+ * which lets idle Servers steal elements queued behind busy ones. The shard capacities add up to the buffer capacity,
+ * so the global bound holds exactly. Elements stay in FIFO order within a shard but not across shards
+ * @author Alex Harlock
+ */
+public class ShardedBuffer extends AbstractRingBuffer
+{
+    private final RingBuffer[] shards;            // Sub-buffers holding the elements
+
+    /**
+     * A sharded buffer acting as a set of queues, from which elements can be added and removed
+     * @param bufferCapacity The maximum capacity of the buffer
+     * @param numShards The number of shards to split the buffer into - capped at the capacity
+     */
+    public ShardedBuffer(int bufferCapacity, int numShards) {
+        super(bufferCapacity, 0L);
+        int count = Math.max(1, Math.min(numShards, bufferCapacity));
+        this.shards = new RingBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int shardCapacity = bufferCapacity / count + ((i < bufferCapacity % count) ? 1 : 0);
+            shards[i] = new RingBuffer(shardCapacity);
+        }
+    }
+
+    /**
+     * Gets the number of elements currently in the buffer, summed over every shard
+     * @return An integer value pertaining to the number of elements currently in the buffer
+     */
+    @Override
+    public int getNumElementsInBuffer() {
+        int total = 0;
+        for (RingBuffer shard : shards) {
+            total += shard.getNumElementsInBuffer();
+        }
+        return total;
+    }
+
+    /**
+     * Describes what is left on the buffer, for the summary
+     * @return A line stating the number of elements remaining and the number of shards they are spread over
+     */
+    @Override
+    protected String describeRemaining() {
+        return super.describeRemaining() + " across " + shards.length + " shards";
+    }
+
+    /**
+     * Gets the number of shards the buffer is split into
+     * @return The number of shards
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * Adds an element to the home shard, or to the next shard with space
+     * @param newElement The element to be added
+     * @return True if the element was added; False if every shard is full
+     */
+    @Override
+    boolean offer(int newElement) {
+        int home = homeShard();
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[(home + i) % shards.length].offer(newElement)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes an element from the home shard, or steals one from the next shard holding an element
+     * @return The element removed, or EMPTY if every shard is empty
+     */
+    @Override
+    long poll() {
+        int home = homeShard();
+        for (int i = 0; i < shards.length; i++) {
+            long element = shards[(home + i) % shards.length].poll();
+            if (element != EMPTY) {
+                return element;
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Adds as many of the given elements as there is space for, filling the home shard first
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added
+     */
+    @Override
+    int offerBatch(int[] src, int off, int len) {
+        int home = homeShard();
+        int count = 0;
+        for (int i = 0; i < shards.length && count < len; i++) {
+            count += shards[(home + i) % shards.length].offerBatch(src, off + count, len - count);
+        }
+        return count;
+    }
+
+    /**
+     * Removes up to max elements, emptying the home shard first and then stealing from the others
+     * @param dst Array the removed elements are written to
+     * @param off Index in dst the first removed element is written to
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    @Override
+    int pollBatch(int[] dst, int off, int max) {
+        int home = homeShard();
+        int count = 0;
+        for (int i = 0; i < shards.length && count < max; i++) {
+            count += shards[(home + i) % shards.length].pollBatch(dst, off + count, max - count);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the shard the current thread works on first, spreading threads evenly over the shards
+     * @return The index of the current threads home shard
+     */
+    private int homeShard() {
+        return (int) (Thread.currentThread().getId() % shards.length);
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * This class represents a first-in first-out queue of elements held on disk, for the elements a Buffer in overflow
+ * mode cannot fit in memory - Elements are written to a chain of fixed size segment files through memory mapping,
+ * a new segment is started when the last one fills up and each segment is deleted once every element in it has
+ * been read back. It is not thread safe; the Buffer only uses it while holding its lock
+ * @author Alex Harlock
+ */
+public class SpillQueue {
+
+    private static final int ELEMENT_BYTES = Integer.BYTES; // Size of an element on disk
+
+    private final Path directory;          // Directory holding the segment files
+    private final int segmentSize;         // Number of elements each segment file holds
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>(); // Segments in the order they were written
+    private long size = 0;                 // Number of elements currently on disk
+    private long numSpilled = 0;           // Number of elements ever written to disk
+    private long numReloaded = 0;          // Number of elements ever read back from disk
+    private int numSegments = 0;           // Number of segment files ever created
+
+    /**
+     * A segment file mapped into memory, with the positions of the next element to be read and written
+     */
+    private static final class Segment {
+        final Path file;                   // The segment file
+        final MappedByteBuffer data;       // The file's contents, mapped into memory
+        int readIndex = 0;                 // Index of the next element to be read
+        int writeIndex = 0;                // Index of the next element to be written
+
+        Segment(Path file, MappedByteBuffer data) {
+            this.file = file;
+            this.data = data;
+        }
+    }
+
+    /**
+     * An empty queue of spilled elements, with its own directory so several queues can spill to the same place
+     * @param directory The directory to create the queue's directory in, or null for the system temporary directory
+     * @param segmentSize The number of elements each segment file holds
+     */
+    public SpillQueue(String directory, int segmentSize) {
+        this.segmentSize = Math.max(1, segmentSize);
+        try {
+            if (directory == null) {
+                this.directory = Files.createTempDirectory("cw-spill");
+            }
+            else {
+                this.directory = Files.createTempDirectory(Files.createDirectories(Paths.get(directory)), "cw-spill");
+            }
+            this.directory.toFile().deleteOnExit(); // Registered first, so it is deleted after its segments
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create spill directory", e);
+        }
+    }
+
+    /**
+     * Adds an element to the end of the queue, starting a new segment file if the last one is full
+     * @param element The element to be added
+     */
+    public void append(int element) {
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writeIndex == segmentSize) {
+            tail = newSegment();
+            segments.addLast(tail);
+        }
+        tail.data.putInt(tail.writeIndex * ELEMENT_BYTES, element);
+        tail.writeIndex++;
+        size++;
+        numSpilled++;
+    }
+
+    /**
+     * Removes the element at the front of the queue - A segment that has been read to the end is deleted, unless it
+     * is the only one, in which case it is rewound and written again
+     * @return The element removed
+     * @throws IllegalStateException If the queue is empty
+     */
+    public int remove() {
+        Segment head = segments.peekFirst();
+        if (head == null || head.readIndex == head.writeIndex) {
+            throw new IllegalStateException("Spill queue is empty");
+        }
+        int element = head.data.getInt(head.readIndex * ELEMENT_BYTES);
+        head.readIndex++;
+        size--;
+        numReloaded++;
+        if (head.readIndex == head.writeIndex) {
+            if (segments.size() == 1) {
+                head.readIndex = 0;
+                head.writeIndex = 0;
+            }
+            else {
+                segments.removeFirst();
+                delete(head);
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Deletes every segment file left and the queue's directory, once the run is over - Any elements still on disk
+     * are discarded and the queue must not be used again
+     */
+    public void close() {
+        while (!segments.isEmpty()) {
+            delete(segments.removeFirst());
+        }
+        size = 0;
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            e.printStackTrace(); // Left for deleteOnExit, e.g. where a segment could not be deleted
+        }
+    }
+
+    /**
+     * Gets whether there are no elements on disk
+     * @return True if the queue is empty; False otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the number of elements currently on disk
+     * @return The number of elements in the queue
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of elements ever written to disk
+     * @return The number of elements spilled
+     */
+    public long getNumSpilled() {
+        return numSpilled;
+    }
+
+    /**
+     * Gets the number of elements ever read back from disk
+     * @return The number of elements reloaded
+     */
+    public long getNumReloaded() {
+        return numReloaded;
+    }
+
+    /**
+     * Gets the number of segment files ever created
+     * @return The number of segments
+     */
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    /**
+     * Creates and maps the next segment file
+     * @return The new, empty segment
+     */
+    private Segment newSegment() {
+        Path file = directory.resolve("segment-" + numSegments + ".spill");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            file.toFile().deleteOnExit(); // In case the run ends before the segment is read back
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentSize * ELEMENT_BYTES);
+            numSegments++;
+            return new Segment(file, data); // The mapping stays valid once the channel is closed
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create spill segment " + file, e);
+        }
+    }
+
+    /**
+     * Deletes a segment file that has been read to the end, or is left when the queue is closed
+     * @param segment The segment to delete
+     */
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            e.printStackTrace(); // Left for deleteOnExit, e.g. where a file cannot be deleted while mapped
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents a buffer for exactly one User and one Server, backed by a preallocated int[] ring -
+ * Each side owns one position, so adding and removing are wait-free: no compare-and-set, no lock, and the position
+ * is published with a lazy (release) write rather than a full fence. Each side also keeps a cached copy of the other
+ * side's position and only reads the real one when the cache says the ring is full or empty, so the two threads
+ * rarely touch each other's cache line. The positions and caches sit a padded cache line apart in one array, so the
+ * User's writes never invalidate the line the Server is reading and vice versa.
+ * Because a lazy write is not ordered before the following read of a WaitQueue's waiter count, a User or Server
+ * that has to park re-checks the ring every RECHECK_NANOS in case its signal was missed
+ * @author Alex Harlock
+ */
+public class SpscBuffer extends AbstractRingBuffer
+{
+    private static final int LINE = 16;                 // Longs per padded line, two cache lines to beat prefetching
+    private static final int TAIL = LINE;               // Position of the next element to be added, written by the User
+    private static final int HEAD_CACHE = LINE + 1;     // The User's last read of the head, on the User's line
+    private static final int HEAD = 2 * LINE;           // Position of the next element to be removed, written by the Server
+    private static final int TAIL_CACHE = 2 * LINE + 1; // The Server's last read of the tail, on the Server's line
+    private static final long RECHECK_NANOS = 50_000;   // Longest a parked thread waits before re-checking the ring
+
+    private final int[] elements;                // Slots holding the elements on the buffer
+    private final int mask;                      // Length of the ring minus one, the ring being a power of two long
+    private final AtomicLongArray positions = new AtomicLongArray(3 * LINE); // Padded positions and caches
+    private final int bufferCapacity;            // Maximum number of elements allowed on the buffer
+
+    /**
+     * A single-producer, single-consumer buffer acting as a queue - Only one thread may add and only one thread may
+     * remove at a time
+     * @param bufferCapacity The maximum capacity of the buffer
+     */
+    public SpscBuffer(int bufferCapacity) {
+        super(Math.max(1, bufferCapacity), RECHECK_NANOS);
+        this.bufferCapacity = Math.max(1, bufferCapacity);
+        int slots = Integer.highestOneBit(this.bufferCapacity);
+        if (slots < this.bufferCapacity) {
+            slots <<= 1;
+        }
+        this.elements = new int[slots];
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Gets the number of elements currently in the buffer -
+     * Positions are read without stopping the User or Server so the result is clamped to [0, capacity]
+     * @return An integer value pertaining to the number of elements currently in the buffer
+     */
+    @Override
+    public int getNumElementsInBuffer() {
+        long size = positions.get(TAIL) - positions.get(HEAD);
+        return (int) Math.max(0, Math.min(size, bufferCapacity));
+    }
+
+    /**
+     * Writes the element at the tail and publishes it, without waking or logging anything - User only
+     * @param newElement The element to be added
+     * @return True if the element was added; False if the buffer is full
+     */
+    @Override
+    boolean offer(int newElement) {
+        long tail = positions.getPlain(TAIL); // Only the User writes the tail
+        if (tail - positions.getPlain(HEAD_CACHE) >= bufferCapacity) {
+            long head = positions.get(HEAD); // The cache says full, so look at the Server's line
+            positions.setPlain(HEAD_CACHE, head);
+            if (tail - head >= bufferCapacity) {
+                return false;
+            }
+        }
+        elements[(int) tail & mask] = newElement;
+        positions.lazySet(TAIL, tail + 1); // Publish the element to the Server
+        return true;
+    }
+
+    /**
+     * Reads the element at the head and hands its slot back, without waking or logging anything - Server only
+     * @return The element removed, or EMPTY if the buffer is empty
+     */
+    @Override
+    long poll() {
+        long head = positions.getPlain(HEAD); // Only the Server writes the head
+        if (head >= positions.getPlain(TAIL_CACHE)) {
+            long tail = positions.get(TAIL); // The cache says empty, so look at the User's line
+            positions.setPlain(TAIL_CACHE, tail);
+            if (head >= tail) {
+                return EMPTY;
+            }
+        }
+        int element = elements[(int) head & mask];
+        positions.lazySet(HEAD, head + 1); // Hand the slot back to the User
+        return element;
+    }
+
+    /**
+     * Writes a run of elements at the tail and publishes them together - User only
+     * @param src Array holding the elements to be added
+     * @param off Index in src of the first element to be added
+     * @param len Number of elements to be added
+     * @return The number of elements added
+     */
+    @Override
+    int offerBatch(int[] src, int off, int len) {
+        long tail = positions.getPlain(TAIL);
+        long space = bufferCapacity - (tail - positions.getPlain(HEAD_CACHE));
+        if (space < len) {
+            long head = positions.get(HEAD);
+            positions.setPlain(HEAD_CACHE, head);
+            space = bufferCapacity - (tail - head);
+        }
+        int count = (int) Math.min(len, space);
+        if (count <= 0) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            elements[(int) (tail + i) & mask] = src[off + i];
+        }
+        positions.lazySet(TAIL, tail + count);
+        return count;
+    }
+
+    /**
+     * Reads a run of elements at the head and hands their slots back together - Server only
+     * @param dst Array the removed elements are written to
+     * @param off Index in dst the first removed element is written to
+     * @param max Maximum number of elements to be removed
+     * @return The number of elements removed
+     */
+    @Override
+    int pollBatch(int[] dst, int off, int max) {
+        long head = positions.getPlain(HEAD);
+        long available = positions.getPlain(TAIL_CACHE) - head;
+        if (available < max) {
+            long tail = positions.get(TAIL);
+            positions.setPlain(TAIL_CACHE, tail);
+            available = tail - head;
+        }
+        int count = (int) Math.min(max, available);
+        if (count <= 0) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            dst[off + i] = elements[(int) (head + i) & mask];
+        }
+        positions.lazySet(HEAD, head + count);
+        return count;
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class represents an offline analysis of a trace written by TraceRecorder, run as
+ * "java TraceAnalyzer run.trace [buckets]" - It rebuilds the buffer's occupancy over time, each User's and Server's
+ * throughput, and the episodes the buffer spent full or empty. Records are streamed from the mapped file rather than
+ * loaded, so only the full/empty transitions, which are few, are held in memory and sorted into time order
+ * @author Alex Harlock
+ */
+public class TraceAnalyzer {
+
+    private static final int CHUNK_RECORDS = 1 << 20; // Number of records mapped at a time
+    private static final int BAR_WIDTH = 40;          // Width of the occupancy bars
+
+    private final String file;         // Path of the trace file
+    private final int buckets;         // Number of intervals the occupancy timeline is split into
+    private int bufferCapacity;        // Capacity of the traced buffer, from the header
+    private long numRecords;           // Number of records in the trace, from the header
+    private long endNanos = 0;         // Time of the last record
+    private final Map<Integer, WorkerStats> workers = new TreeMap<>((a, b) -> (a > 0 == b > 0)
+            ? Integer.compare(Math.abs(a), Math.abs(b)) : Integer.compare(b, a)); // Every User's then Server's statistics
+    private long[] transitions = new long[64]; // Full/empty transitions, packed as time << 4 | op
+    private int numTransitions = 0;    // Number of transitions held
+
+    /**
+     * What one User or Server did over the trace
+     */
+    private static final class WorkerStats {
+        long operations = 0;             // Number of adds or removes
+        long elements = 0;               // Number of elements moved
+        long first = Long.MAX_VALUE;     // Time the worker started, or of its first operation
+        long last = Long.MIN_VALUE;      // Time the worker finished, or of its last operation
+    }
+
+    /**
+     * An analysis of the given trace file
+     * @param file Path of the trace file
+     * @param buckets Number of intervals the occupancy timeline is split into
+     */
+    public TraceAnalyzer(String file, int buckets) {
+        this.file = file;
+        this.buckets = Math.max(1, buckets);
+    }
+
+    /**
+     * Main method - Analyses the trace file given as the first argument
+     * @param args The trace file, then optionally the number of timeline intervals (default 20)
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java TraceAnalyzer <trace file> [buckets]");
+            return;
+        }
+        try {
+            new TraceAnalyzer(args[0], (args.length > 1) ? Integer.parseInt(args[1]) : 20).analyse();
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the trace and displays the occupancy timeline, per-thread throughput and full/empty episodes
+     */
+    public void analyse() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            readHeader(channel);
+            endNanos = scan(channel, null); // The first pass finds the length of the run the buckets divide
+            long[][] timeline = new long[buckets][];
+            scan(channel, timeline);
+            displayOverview();
+            displayTimeline(timeline);
+            displayWorkers();
+            displayEpisodes("Full", TraceRecorder.FULL);
+            displayEpisodes("Empty", TraceRecorder.EMPTY);
+        }
+    }
+
+    /**
+     * Reads and checks the file header
+     * @param channel The trace file
+     */
+    private void readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < TraceRecorder.HEADER_BYTES) {
+            throw new IOException(file + " is too short to be a trace");
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TraceRecorder.HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != TraceRecorder.MAGIC) {
+            throw new IOException(file + " is not a trace");
+        }
+        int version = header.getInt();
+        int recordBytes = header.getInt();
+        if (version != TraceRecorder.VERSION || recordBytes != TraceRecorder.RECORD_BYTES) {
+            throw new IOException(file + " is trace version " + version + ", expected " + TraceRecorder.VERSION);
+        }
+        bufferCapacity = header.getInt();
+        header.getLong(); // Start time, which records are already relative to
+        numRecords = Math.min(header.getLong(), (channel.size() - TraceRecorder.HEADER_BYTES) / recordBytes);
+    }
+
+    /**
+     * Reads every record - The first pass only finds the time of the last record; the second collects the
+     * timeline, per-worker statistics and transitions
+     * @param channel The trace file
+     * @param timeline Per-interval occupancy (count, sum, min, max, elements added, elements removed) to fill in,
+     *                 or null on the first pass
+     * @return The time of the last record
+     */
+    private long scan(FileChannel channel, long[][] timeline) throws IOException {
+        long last = 0;
+        double bucketNanos = Math.max(1, endNanos + 1) / (double) buckets;
+        for (long done = 0; done < numRecords; done += CHUNK_RECORDS) {
+            int count = (int) Math.min(CHUNK_RECORDS, numRecords - done);
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                    TraceRecorder.HEADER_BYTES + done * TraceRecorder.RECORD_BYTES,
+                    (long) count * TraceRecorder.RECORD_BYTES);
+            records.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                long time = records.getLong();
+                int worker = records.getInt();
+                int op = records.getInt();
+                int occupancy = records.getInt();
+                int elements = records.getInt();
+                last = Math.max(last, time);
+                if (timeline != null) {
+                    handle(timeline, (int) Math.min(buckets - 1, time / bucketNanos), time, worker, op, occupancy,
+                            elements);
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Adds one record to the analysis
+     * @param timeline Per-interval occupancy to fill in
+     * @param bucket The interval the record falls in
+     * @param time Time of the record, in ns since the trace started
+     * @param worker A User's id, minus a Server's id, or 0 for the buffer itself
+     * @param op What happened, e.g. TraceRecorder.ADD
+     * @param occupancy Number of elements in the buffer afterwards, or -1 if not known
+     * @param elements Number of elements moved
+     */
+    private void handle(long[][] timeline, int bucket, long time, int worker, int op, int occupancy, int elements) {
+        switch (op) {
+            case TraceRecorder.ADD:
+            case TraceRecorder.REMOVE: {
+                long[] interval = timeline[bucket];
+                if (interval == null) {
+                    interval = timeline[bucket] = new long[] {0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0, 0};
+                }
+                interval[0]++;
+                interval[1] += occupancy;
+                interval[2] = Math.min(interval[2], occupancy);
+                interval[3] = Math.max(interval[3], occupancy);
+                interval[(op == TraceRecorder.ADD) ? 4 : 5] += elements;
+                WorkerStats stats = workers.computeIfAbsent(worker, w -> new WorkerStats());
+                stats.operations++;
+                stats.elements += elements;
+                stats.first = Math.min(stats.first, time);
+                stats.last = Math.max(stats.last, time);
+                break;
+            }
+            case TraceRecorder.START:
+                workers.computeIfAbsent(worker, w -> new WorkerStats()).first = time;
+                break;
+            case TraceRecorder.FINISH:
+                workers.computeIfAbsent(worker, w -> new WorkerStats()).last = time;
+                break;
+            default: // A full/empty transition
+                if (numTransitions == transitions.length) {
+                    transitions = Arrays.copyOf(transitions, 2 * numTransitions);
+                }
+                transitions[numTransitions++] = (time << 4) | op;
+                break;
+        }
+    }
+
+    /**
+     * Displays what the trace holds
+     */
+    private void displayOverview() {
+        System.out.println(String.format("Trace %s: %d records over %.1fms, buffer capacity %d", file, numRecords,
+                endNanos / 1e6, bufferCapacity));
+    }
+
+    /**
+     * Displays the buffer's occupancy in each interval, as sampled after every add and remove, with a bar showing
+     * the mean occupancy against the capacity
+     * @param timeline Per-interval occupancy
+     */
+    private void displayTimeline(long[][] timeline) {
+        System.out.println("Occupancy timeline (ms: min/mean/max elements, elements added/removed):");
+        double bucketMillis = (endNanos + 1) / 1e6 / buckets;
+        for (int i = 0; i < buckets; i++) {
+            long[] interval = timeline[i];
+            if (interval == null) {
+                System.out.println(String.format("  %8.1f-%-8.1f  no operations", i * bucketMillis,
+                        (i + 1) * bucketMillis));
+                continue;
+            }
+            double mean = (double) interval[1] / interval[0];
+            int bar = (bufferCapacity <= 0) ? 0
+                    : (int) Math.round(Math.min(1, mean / bufferCapacity) * BAR_WIDTH);
+            System.out.println(String.format("  %8.1f-%-8.1f  %d/%.1f/%d  +%d -%d  |%s%s|", i * bucketMillis,
+                    (i + 1) * bucketMillis, interval[2], mean, interval[3], interval[4], interval[5],
+                    "#".repeat(bar), " ".repeat(BAR_WIDTH - bar)));
+        }
+    }
+
+    /**
+     * Displays each User's and Server's operations and throughput while it was running
+     */
+    private void displayWorkers() {
+        System.out.println("Per-thread throughput:");
+        for (Map.Entry<Integer, WorkerStats> entry : workers.entrySet()) {
+            int worker = entry.getKey();
+            WorkerStats stats = entry.getValue();
+            long active = (stats.last > stats.first) ? stats.last - stats.first : 0;
+            System.out.println(String.format("  %s %d: %d elements in %d operations over %.1fms, %.0f elements/s",
+                    (worker > 0) ? "User" : "Server", Math.abs(worker), stats.elements, stats.operations,
+                    active / 1e6, (active > 0) ? stats.elements / (active / 1e9) : 0));
+        }
+    }
+
+    /**
+     * Displays the episodes the buffer spent in a state, pairing each entry into the state with the next exit - An
+     * episode still open when the trace ends is counted up to the last record
+     * @param state The name of the state, e.g. "Full"
+     * @param enterOp The trace op for entering the state, whose successor is the op for leaving it
+     */
+    private void displayEpisodes(String state, int enterOp) {
+        long[] sorted = Arrays.copyOf(transitions, numTransitions);
+        Arrays.sort(sorted);
+        Histogram durations = new Histogram();
+        long total = 0;
+        long longest = 0;
+        long longestAt = 0;
+        long enteredAt = -1;
+        for (long transition : sorted) {
+            int op = (int) (transition & 0xF);
+            long time = transition >>> 4;
+            if (op == enterOp && enteredAt < 0) {
+                enteredAt = time;
+            }
+            else if (op == enterOp + 1 && enteredAt >= 0) {
+                long period = time - enteredAt;
+                durations.record(period);
+                total += period;
+                if (period > longest) {
+                    longest = period;
+                    longestAt = enteredAt;
+                }
+                enteredAt = -1;
+            }
+        }
+        if (enteredAt >= 0) {
+            long period = Math.max(0, endNanos - enteredAt);
+            durations.record(period);
+            total += period;
+            if (period > longest) {
+                longest = period;
+                longestAt = enteredAt;
+            }
+        }
+        if (durations.getTotalCount() == 0) {
+            System.out.println(state + " episodes: none");
+            return;
+        }
+        System.out.println(String.format("%s episodes: %d, %.1fms in total (%.1f%% of the run), longest %.3fms "
+                        + "from %.1fms, durations (us) %s", state, durations.getTotalCount(), total / 1e6,
+                (endNanos > 0) ? 100.0 * total / endNanos : 0, longest / 1e6, longestAt / 1e6,
+                durations.summary(1000)));
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a compact binary trace of a run, for offline analysis with TraceAnalyzer - Every add,
+ * remove, full/empty transition and User/Server start and finish is written as a fixed-size record into a small
+ * buffer held by the recording thread, so recording is a thread-local lookup and a few stores. A full buffer is
+ * written to the trace file through a FileChannel at a position reserved with a single atomic add, so threads never
+ * wait on each other. A User or Server that finishes writes out and hands back its buffer for the next thread to
+ * reuse, so the memory held is a few kilobytes per running thread rather than per thread ever started.
+ * Records are in time order within each thread's chunks only; the analyzer sorts them.
+ * File layout, little-endian: a HEADER_BYTES header (magic, version, record size, buffer capacity, start time,
+ * number of records), then RECORD_BYTES records of (time in ns since the start, worker, op, occupancy, count) where
+ * the worker is a User's id, minus a Server's id, or 0 for the buffer itself
+ * @author Alex Harlock
+ */
+public final class TraceRecorder {
+
+    public static final int ADD = 1;       // A User added count elements
+    public static final int REMOVE = 2;    // A Server removed count elements
+    public static final int FULL = 3;      // The buffer became full
+    public static final int NOT_FULL = 4;  // The buffer stopped being full
+    public static final int EMPTY = 5;     // The buffer became empty
+    public static final int NOT_EMPTY = 6; // The buffer stopped being empty
+    public static final int START = 7;     // A User/Server started
+    public static final int FINISH = 8;    // A User/Server finished, having moved count elements
+
+    public static final int MAGIC = 0x52545743;  // "CWTR" read as little-endian bytes
+    public static final int VERSION = 1;         // Version of the file layout
+    public static final int HEADER_BYTES = 32;   // Size of the file header
+    public static final int RECORD_BYTES = 24;   // Size of every record
+
+    private static volatile TraceRecorder current; // Recorder for the run in progress, or null when not tracing
+    private static final ThreadLocal<ThreadBuffer> buffers = new ThreadLocal<>(); // Each thread's record buffer
+
+    private final FileChannel channel;     // The trace file
+    private final int bufferRecords;       // Number of records each buffer holds before it is written out
+    private final int bufferCapacity;      // Capacity of the buffer being traced
+    private final long startNanos = System.nanoTime(); // Time records are measured from
+    private final AtomicLong position = new AtomicLong(HEADER_BYTES); // Next free byte of the file
+    private final List<ThreadBuffer> threadBuffers = new ArrayList<>(); // Every buffer allocated, guarded by this
+    private final ConcurrentLinkedQueue<ThreadBuffer> freeBuffers = new ConcurrentLinkedQueue<>(); // Buffers handed back by finished threads
+
+    /**
+     * A record buffer, held by one thread at a time
+     */
+    private static final class ThreadBuffer {
+        final TraceRecorder recorder; // The recording the buffer belongs to
+        final ByteBuffer bytes;       // Records not yet written to the file
+
+        ThreadBuffer(TraceRecorder recorder, int records) {
+            this.recorder = recorder;
+            this.bytes = ByteBuffer.allocateDirect(records * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * A recording to the given file
+     * @param file Path of the trace file, replaced if it exists
+     * @param bufferRecords Number of records each thread buffers before writing them out
+     * @param bufferCapacity Capacity of the buffer being traced, stored in the header
+     */
+    private TraceRecorder(String file, int bufferRecords, int bufferCapacity) throws IOException {
+        this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.bufferRecords = Math.max(1, bufferRecords);
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    /**
+     * Starts tracing a run if the "trace" setting names a file, e.g. -Dcw.trace=run.trace -Dcw.trace.records=256,
+     * where trace.records is the number of records each thread buffers - A scenario sweep keeps the last run only
+     * @param bufferCapacity Capacity of the buffer being traced
+     */
+    public static synchronized void start(int bufferCapacity) {
+        stop();
+        String file = Settings.getString("trace", null);
+        if (file == null) {
+            return;
+        }
+        try {
+            current = new TraceRecorder(file, Settings.getInt("trace.records", 256), bufferCapacity);
+        } catch (IOException e) {
+            e.printStackTrace(); // Run untraced rather than not at all
+        }
+    }
+
+    /**
+     * Stops tracing, writing out every thread's remaining records and the header - Called once every traced thread
+     * has finished
+     */
+    public static synchronized void stop() {
+        TraceRecorder recorder = current;
+        if (recorder == null) {
+            return;
+        }
+        current = null;
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records an event if a trace is running
+     * @param op What happened, e.g. ADD
+     * @param worker A User's id, minus a Server's id, or 0 for the buffer itself
+     * @param occupancy Number of elements in the buffer afterwards, or -1 if not known
+     * @param count Number of elements moved
+     */
+    public static void record(int op, int worker, int occupancy, int count) {
+        TraceRecorder recorder = current;
+        if (recorder == null) {
+            return;
+        }
+        ThreadBuffer buffer = buffers.get();
+        if (buffer == null || buffer.recorder != recorder) {
+            buffer = recorder.acquireBuffer();
+        }
+        ByteBuffer bytes = buffer.bytes;
+        if (bytes.remaining() < RECORD_BYTES) {
+            recorder.write(bytes);
+        }
+        bytes.putLong(System.nanoTime() - recorder.startNanos).putInt(worker).putInt(op).putInt(occupancy).putInt(count);
+        if (op == FINISH) {
+            recorder.releaseBuffer(buffer); // The thread records nothing more, so its buffer can serve another
+        }
+    }
+
+    /**
+     * Gives the current thread a buffer for this recording, reusing one handed back by a finished thread if possible
+     * @return The thread's buffer
+     */
+    private ThreadBuffer acquireBuffer() {
+        ThreadBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = new ThreadBuffer(this, bufferRecords);
+            synchronized (this) {
+                threadBuffers.add(buffer);
+            }
+        }
+        buffers.set(buffer);
+        return buffer;
+    }
+
+    /**
+     * Writes out the current thread's records and hands its buffer back for reuse
+     * @param buffer The current thread's buffer
+     */
+    private void releaseBuffer(ThreadBuffer buffer) {
+        write(buffer.bytes);
+        buffers.remove();
+        freeBuffers.add(buffer);
+    }
+
+    /**
+     * Writes a buffer's records to the file and empties it
+     * @param bytes The buffer, in write mode
+     */
+    private void write(ByteBuffer bytes) {
+        bytes.flip();
+        long at = position.getAndAdd(bytes.remaining()); // Reserves this thread's stretch of the file
+        try {
+            while (bytes.hasRemaining()) {
+                at += channel.write(bytes, at);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Writes out every buffer's remaining records, then the header, and closes the file
+     */
+    private void close() throws IOException {
+        synchronized (this) {
+            for (ThreadBuffer buffer : threadBuffers) {
+                write(buffer.bytes);
+            }
+        }
+        long end = position.get();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(bufferCapacity)
+                .putLong(startNanos).putLong((end - HEADER_BYTES) / RECORD_BYTES).flip();
+        channel.write(header, 0);
+        channel.truncate(end);
+        channel.close();
+    }
+}
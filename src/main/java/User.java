@@ -1,61 +1,303 @@
+import java.util.concurrent.TimeUnit;
+
 /**
- * This class represents a user adding elements to a buffer
+ * This class represents a user adding elements to a buffer - It is a task rather than a thread, so it can be run
+ * on a dedicated, pooled or virtual thread
  * @author Alex Harlock
  */
-public class User extends Thread implements Runnable
+public class User implements Runnable
 {
     private final int id;                // Id corresponding to the Users thread
-    private final int numElementsToAdd;  // Number of elements to add to the buffer
+    private final WorkPool work;         // Pool the User claims the elements it adds from
     private int elementsAdded = 0;       // Number of elements the User has added to the buffer
-    private final Buffer buffer;         // Instance of the buffer being added to
-    private final int bufferCapacity;    // Maximum number of elements able to be held in the buffer
+    private final BufferEngine buffer;   // Instance of the buffer being added to
+    private final int batchSize;         // Maximum number of elements added to the buffer at once
+    private final int[] batch;           // Elements being added in the current batch
+    private int batchesAdded = 0;        // Number of successful adds, each of one or more elements
+    private final Histogram addLatency = new Histogram(); // Nanoseconds taken by each add, including any wait
+    private final Histogram occupancy = new Histogram();  // Number of elements in the buffer after each add
+    private long failedAdds = 0;         // Number of failed attempts to add, i.e. times the buffer was found full
+    private final WaitStrategy waitStrategy; // What the User does after finding the buffer full
+    private final int lane;              // Priority class of the elements added, 0 being the highest
+    private final ArrivalSchedule schedule; // Arrival times in an open-loop run, or null to add as fast as possible
+    private long nextArrival = 0;        // In an open-loop run, System.nanoTime() at which the next element is due
+    private final Histogram scheduleLag = new Histogram(); // Nanoseconds each open-loop add started after it was due
+    private static final long SPIN_BEFORE_ARRIVAL_NANOS = 50_000; // Open-loop Users spin rather than park this close to an arrival
+    private long finishNanos = 0;        // System.nanoTime() at which the User finished
+    private final OverflowPolicy overflowPolicy; // What the User does with an element when the buffer is full
+    private final long overflowTimeoutNanos; // Longest a REJECT User waits for space before giving an element up
+    private long droppedElements = 0;    // Number of elements discarded by the DROP_OLDEST/DROP_NEWEST policies
+    private long timedOutElements = 0;   // Number of elements given up by the REJECT policy
+    private static final int ADDED = 1;  // overflow() added the element
+    private static final int SHED = 0;   // overflow() gave the element up
+    private static final int RETRY = -1; // overflow() wants the add tried again
 
     /**
      * A User tasked with adding a set number of elements to a given buffer
      * @param id               Users id corresponding to its thread number
      * @param numElementsToAdd Number of elements to add to the buffer
      * @param buffer           Buffer to add to
+     * @param batchSize        Maximum number of elements to add to the buffer at once
+     */
+    public User(int id, int numElementsToAdd, BufferEngine buffer, int batchSize) {
+        this(id, new WorkPool(numElementsToAdd, Integer.MAX_VALUE), buffer, batchSize, WaitStrategy.BLOCK);
+    }
+
+    /**
+     * A User adding elements claimed from a pool, which may be shared with other Users
+     * @param id        Users id corresponding to its thread number
+     * @param work      Pool of elements to claim from
+     * @param buffer    Buffer to add to
+     * @param batchSize Maximum number of elements to add to the buffer at once
+     * @param waitStrategy What to do after finding the buffer full
      */
-    public User(int id, int numElementsToAdd, Buffer buffer) {
+    public User(int id, WorkPool work, BufferEngine buffer, int batchSize, WaitStrategy waitStrategy) {
+        this(id, work, buffer, batchSize, waitStrategy, 0, null);
+    }
+
+    /**
+     * A User adding elements of a given priority class, claimed from a pool which may be shared with other Users
+     * @param id        Users id corresponding to its thread number
+     * @param work      Pool of elements to claim from
+     * @param buffer    Buffer to add to
+     * @param batchSize Maximum number of elements to add to the buffer at once
+     * @param waitStrategy What to do after finding the buffer full
+     * @param lane      Priority lane the elements are added to, 0 being the highest - ignored by buffers without lanes
+     * @param schedule  Arrival times to add elements at (open loop, one element at a time), or null to add as fast as
+     *                  the buffer allows (closed loop)
+     */
+    public User(int id, WorkPool work, BufferEngine buffer, int batchSize, WaitStrategy waitStrategy, int lane,
+                ArrivalSchedule schedule) {
+        this(id, work, buffer, batchSize, waitStrategy, lane, schedule, OverflowPolicy.BLOCK, 0);
+    }
+
+    /**
+     * A User adding elements of a given priority class, claimed from a pool which may be shared with other Users,
+     * that sheds load according to an overflow policy when the buffer is full
+     * @param id        Users id corresponding to its thread number
+     * @param work      Pool of elements to claim from
+     * @param buffer    Buffer to add to
+     * @param batchSize Maximum number of elements to add to the buffer at once
+     * @param waitStrategy What to do after finding the buffer full, under the BLOCK policy
+     * @param lane      Priority lane the elements are added to, 0 being the highest - ignored by buffers without lanes
+     * @param schedule  Arrival times to add elements at (open loop, one element at a time), or null to add as fast as
+     *                  the buffer allows (closed loop)
+     * @param overflowPolicy What to do with an element when the buffer is full
+     * @param overflowTimeoutNanos Longest to wait for space under the REJECT policy, 0 to give up straight away
+     */
+    public User(int id, WorkPool work, BufferEngine buffer, int batchSize, WaitStrategy waitStrategy, int lane,
+                ArrivalSchedule schedule, OverflowPolicy overflowPolicy, long overflowTimeoutNanos) {
         this.id = id + 1;
-        this.numElementsToAdd = numElementsToAdd;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowTimeoutNanos = Math.max(0, overflowTimeoutNanos);
+        this.schedule = schedule;
+        this.lane = lane;
+        this.waitStrategy = waitStrategy;
+        this.work = work;
         this.buffer = buffer;
-        this.bufferCapacity = buffer.getBufferCapacity();
+        this.batchSize = Math.max(1, batchSize);
+        this.batch = new int[this.batchSize];
     }
 
     /**
-     * Starts the User thread execution
+     * Runs the User until its pool of elements is exhausted
      */
     @Override
     public void run() {
+        FlightEvents.Worker event = FlightEvents.beginWorker();
+        TraceRecorder.record(TraceRecorder.START, id, -1, 0);
+        String outcome = "interrupted";
         try {
             add_elements();
+            outcome = "completed";
         } catch (InterruptedException e) {
             e.printStackTrace();
+        } finally {
+            finishNanos = System.nanoTime();
+            TraceRecorder.record(TraceRecorder.FINISH, id, -1, elementsAdded);
+            FlightEvents.endWorker(event, "user", id, elementsAdded, outcome);
         }
     }
 
     /**
-     * Adds elements to the buffer until the required number of elements have been successfully added
+     * Claims elements from the pool and adds them to the buffer until the pool is exhausted
      */
     private void add_elements() throws InterruptedException {
-        while (elementsAdded < numElementsToAdd) {
-            if (buffer.attemptAdd(this, elementsAdded)) { // Returns True if add was successful; False otherwise
-                elementsAdded++;
+        if (schedule != null) {
+            nextArrival = schedule.getFirstArrival(id - 1);
+        }
+        long first;
+        while ((first = work.claim()) >= 0) {
+            if (batchSize > 1 && schedule == null) {
+                add_batches(first, work.getClaimSize(first));
+            }
+            else {
+                add_singly(first, work.getClaimSize(first));
+            }
+        }
+    }
+
+    /**
+     * Adds elements to the buffer one at a time until the given elements have all been successfully added -
+     * While the buffer is full the User waits according to its wait strategy. In an open-loop run each element
+     * is added at its scheduled arrival time, or straight away if the User has fallen behind
+     * @param first The first element to add
+     * @param count The number of elements to add
+     */
+    private void add_singly(long first, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            int element = (int) (first + i);
+            if (schedule != null) {
+                awaitArrival(element);
             }
+            long start = System.nanoTime();
+            int attempt = 0;
+            int outcome = ADDED;
+            while (!buffer.attemptAdd(element, lane)) {
+                failedAdds++;
+                if ((outcome = overflow(element, attempt++)) != RETRY) {
+                    break;
+                }
+            }
+            if (outcome == SHED) {
+                continue; // Given up - nothing was added
+            }
+            recordAdd(start, 1);
+            displayAddInfo(1);
+            elementsAdded++;
+            batchesAdded++;
             //Thread.sleep(1); // For testing buffer being frequently empty
         }
     }
 
     /**
-     * Displays information about the most recent element added to the buffer by the User
+     * Adds elements to the buffer in batches of up to batchSize until the given elements have all been added -
+     * While the buffer is full the User waits according to its wait strategy, and a blocking User sleeps
+     * until a single element fits
+     * @param first The first element to add
+     * @param count The number of elements to add
+     */
+    private void add_batches(long first, int count) throws InterruptedException {
+        int done = 0;
+        while (done < count) {
+            int len = Math.min(batchSize, count - done);
+            for (int i = 0; i < len; i++) {
+                batch[i] = (int) (first + done + i);
+            }
+            long start = System.nanoTime();
+            int attempt = 0;
+            int outcome = ADDED;
+            int added; // Number of elements added, kept apart from the outcome of overflow()
+            while ((added = buffer.addBatch(batch, 0, len, lane)) == 0) {
+                failedAdds++;
+                outcome = overflow(batch[0], attempt++); // Settles the first element only - the rest are retried next
+                if (outcome == ADDED) {
+                    added = 1;
+                    break;
+                }
+                if (outcome == SHED) {
+                    break;
+                }
+            }
+            if (outcome == SHED) {
+                done++; // The first element was shed
+                continue;
+            }
+            recordAdd(start, added);
+            displayAddInfo(added);
+            done += added;
+            elementsAdded += added;
+            batchesAdded++;
+        }
+    }
+
+    /**
+     * Handles an element that would not fit because the buffer was full, according to the overflow policy
+     * @param element The element being added
+     * @param attempt The number of retries already made for this element
+     * @return ADDED if the element has been added, SHED if it has been given up, or RETRY to try adding it again
+     */
+    private int overflow(int element, int attempt) throws InterruptedException {
+        switch (overflowPolicy) {
+            case REJECT:
+                if (overflowTimeoutNanos > 0 && buffer.offer(element, lane, overflowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                    return ADDED;
+                }
+                timedOutElements++;
+                return SHED;
+            case DROP_NEWEST:
+                droppedElements++;
+                return SHED;
+            case DROP_OLDEST:
+                if (buffer.evictOldest(lane)) {
+                    droppedElements++;
+                    return RETRY;
+                }
+                if (buffer.getNumElementsInBuffer() < buffer.getBufferCapacity()) {
+                    return RETRY; // A Server made space instead
+                }
+                droppedElements++; // Every element waiting outranks this one, so it is the one dropped
+                return SHED;
+            case BLOCK:
+            default:
+                if (waitStrategy.blocks()) {
+                    buffer.put(element, lane);
+                    return ADDED;
+                }
+                waitStrategy.idle(attempt);
+                return RETRY;
+        }
+    }
+
+    /**
+     * Schedules the next element and waits for its arrival time - Parks until shortly before it, then spins the
+     * rest of the way so the add starts on time. Records how late the add started
+     * @param element The element about to be added
+     */
+    private void awaitArrival(int element) throws InterruptedException {
+        long due = nextArrival;
+        nextArrival += schedule.nextInterval();
+        schedule.setIntended(element, due);
+        long remaining = due - System.nanoTime();
+        if (remaining > SPIN_BEFORE_ARRIVAL_NANOS) {
+            WaitQueue.park(this, remaining - SPIN_BEFORE_ARRIVAL_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        long now;
+        while ((now = System.nanoTime()) < due) {
+            Thread.onSpinWait();
+        }
+        scheduleLag.record(now - due);
+    }
+
+    /**
+     * Records how long the most recent add took and how full it left the buffer
+     * @param start The System.nanoTime() at which the add began
+     * @param count The number of elements added
      */
-    public void displayAddInfo() {
-        System.out.println("User " + id + " adds an element " + buffer.getNumElementsInBuffer() + "/" + bufferCapacity);
+    private void recordAdd(long start, int count) {
+        long latency = System.nanoTime() - start;
+        addLatency.record(latency);
+        int inBuffer = buffer.getNumElementsInBuffer();
+        occupancy.record(inBuffer);
+        TraceRecorder.record(TraceRecorder.ADD, id, inBuffer, count);
+        FlightEvents.bufferOperation("add", id, count, buffer, latency);
     }
 
-    public void displayBufferFull() {
-        System.out.println("Buffer full - User now sleeping");
+    /**
+     * Logs information about the most recent elements added to the buffer by the User -
+     * Called after the add has released the buffer, so logging never holds up other threads
+     * @param count The number of elements added
+     */
+    private void displayAddInfo(int count) {
+        if (EventLog.isEnabled()) {
+            int numElementsInBuffer = buffer.getNumElementsInBuffer();
+            for (int i = 0; i < count; i++) {
+                EventLog.userAdded(id, numElementsInBuffer);
+            }
+        }
     }
 
     /**
@@ -66,11 +308,83 @@ public class User extends Thread implements Runnable
         return elementsAdded;
     }
 
+    /**
+     * Gets the average number of elements added to the buffer at once
+     * @return The number of elements added divided by the number of successful adds
+     */
+    public double getAverageBatchSize() {
+        return (batchesAdded == 0) ? 0 : (double) elementsAdded / batchesAdded;
+    }
+
+    /**
+     * Gets the time taken by each add, including any time spent waiting for space
+     * @return A histogram of add latencies in nanoseconds
+     */
+    public Histogram getAddLatency() {
+        return addLatency;
+    }
+
+    /**
+     * Gets the number of elements in the buffer after each add
+     * @return A histogram of buffer occupancy
+     */
+    public Histogram getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * Gets the number of attempts to add that found the buffer full - One per wait when blocking, or one per retry
+     * otherwise
+     * @return The number of failed attempts to add
+     */
+    public long getFailedAdds() {
+        return failedAdds;
+    }
+
+    /**
+     * Gets the number of elements the User discarded, or evicted from the buffer, under a DROP policy
+     * @return The number of dropped elements
+     */
+    public long getDroppedElements() {
+        return droppedElements;
+    }
+
+    /**
+     * Gets the number of elements the User gave up under the REJECT policy because no space was made in time
+     * @return The number of timed out elements
+     */
+    public long getTimedOutElements() {
+        return timedOutElements;
+    }
+
+    /**
+     * Gets when the User finished adding elements
+     * @return The System.nanoTime() at which the User finished, or 0 if it has not
+     */
+    public long getFinishNanos() {
+        return finishNanos;
+    }
+
+    /**
+     * Gets how late each add started relative to its scheduled arrival time, in an open-loop run
+     * @return A histogram of schedule lag in nanoseconds, empty in a closed-loop run
+     */
+    public Histogram getScheduleLag() {
+        return scheduleLag;
+    }
+
+    /**
+     * Gets the priority lane the User adds to
+     * @return The lane, 0 being the highest priority
+     */
+    public int getLane() {
+        return lane;
+    }
+
     /**
      * Gets the Users id number
      * @return An integer equal to the Users id
      */
-    @Override
     public long getId() {
         return id;
     }
@@ -0,0 +1,96 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class represents a FIFO queue of threads parked until a buffer changes state -
+ * A thread joins the queue, re-checks the buffer, and only then parks, so a signal sent after the re-check can never
+ * be missed. Parking never holds a monitor, so it suits pooled and virtual threads as well as dedicated ones
+ * @author Alex Harlock
+ */
+public class WaitQueue {
+
+    private final ArrayDeque<Thread> queue = new ArrayDeque<>(); // Parked threads in arrival order, guarded by this
+    private volatile int numWaiters = 0;                         // Size of the queue, readable without holding this
+
+    /**
+     * Adds the current thread to the back of the queue - The caller must re-check the buffer before calling park()
+     */
+    public void enqueue() {
+        synchronized (this) {
+            queue.addLast(Thread.currentThread());
+            numWaiters = queue.size();
+        }
+    }
+
+    /**
+     * Removes the current thread from the queue if a signal has not already removed it
+     */
+    public void dequeue() {
+        synchronized (this) {
+            queue.removeFirstOccurrence(Thread.currentThread());
+            numWaiters = queue.size();
+        }
+    }
+
+    /**
+     * Parks the current thread until it is signalled, then removes it from the queue
+     * @throws InterruptedException If the thread is interrupted while parked - any signal it received is passed on
+     */
+    public void await() throws InterruptedException {
+        await(0L);
+    }
+
+    /**
+     * Parks the current thread until it is signalled or the given time runs out, then removes it from the queue -
+     * The caller must re-check the buffer afterwards, as it cannot tell a signal from the time running out
+     * @param nanos The maximum time to park, or 0 to park until signalled
+     * @throws InterruptedException If the thread is interrupted while parked - any signal it received is passed on
+     */
+    public void await(long nanos) throws InterruptedException {
+        park(this, nanos);
+        dequeue();
+        if (Thread.interrupted()) {
+            signal(1);
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Wakes up to the given number of threads from the front of the queue
+     * @param count The number of threads to wake
+     */
+    public void signal(int count) {
+        if (numWaiters == 0) {
+            return;
+        }
+        synchronized (this) {
+            for (int i = 0; i < count && !queue.isEmpty(); i++) {
+                LockSupport.unpark(queue.pollFirst());
+            }
+            numWaiters = queue.size();
+        }
+    }
+
+    /**
+     * Gets whether any thread is waiting in the queue
+     * @return True if at least one thread is waiting; False otherwise
+     */
+    public boolean hasWaiters() {
+        return numWaiters > 0;
+    }
+
+    /**
+     * Parks the current thread - A pooled thread keeps its place in the pool while parked, as every pool in the
+     * program is fixed in size
+     * @param blocker The object the thread is parked on, shown in thread dumps
+     * @param nanos The maximum time to park, or 0 to park until unparked
+     */
+    public static void park(Object blocker, long nanos) {
+        if (nanos > 0) {
+            LockSupport.parkNanos(blocker, nanos);
+        }
+        else {
+            LockSupport.park(blocker);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * This enum represents what a User/Server does after finding the buffer full/empty - Spinning reacts fastest but
+ * keeps a core busy, while parking and blocking give the core up at the cost of a slower wake-up. Spinning and
+ * yielding only last for SPINS_BEFORE_PARK retries before they park as well, as a thread that never parks holds on to
+ * its thread for good - on a shared pool or a virtual thread's carrier that can starve the very Server/User it is
+ * waiting for
+ * @author Alex Harlock
+ */
+public enum WaitStrategy {
+
+    SPIN,   // Retry immediately, hinting to the processor that this is a spin loop - needs a core per thread
+    YIELD,  // Spin for a while, then yield the core to other threads between retries
+    PARK,   // Park for an exponentially growing time between retries
+    BLOCK;  // Sleep in put/take until woken by a Server/User
+
+    private static final int SPINS_BEFORE_YIELD = 100;         // Retries spent spinning before YIELD starts yielding
+    private static final int SPINS_BEFORE_PARK = 10_000;       // Retries spent spinning/yielding before SPIN/YIELD park
+    private static final long MIN_PARK_NANOS = 1_000;          // First PARK wait - 1 microsecond
+    private static final long MAX_PARK_NANOS = 1_000_000;      // Longest PARK wait - 1 millisecond
+
+    /**
+     * Gets whether Users/Servers should wait in put/take rather than retrying
+     * @return True for BLOCK; False for the retrying strategies
+     */
+    public boolean blocks() {
+        return this == BLOCK;
+    }
+
+    /**
+     * Waits before the next retry of a failed add/remove - BLOCK parks like PARK here, though Users and Servers
+     * using it wait in put/take instead, and SPIN and YIELD park like PARK once they have retried SPINS_BEFORE_PARK
+     * times without success
+     * @param attempt The number of retries already made since the last successful add/remove
+     */
+    public void idle(int attempt) throws InterruptedException {
+        switch (this) {
+            case SPIN:
+                if (attempt < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                }
+                else {
+                    park(attempt - SPINS_BEFORE_PARK);
+                }
+                break;
+            case YIELD:
+                if (attempt < SPINS_BEFORE_YIELD) {
+                    Thread.onSpinWait();
+                }
+                else if (attempt < SPINS_BEFORE_PARK) {
+                    Thread.yield();
+                }
+                else {
+                    park(attempt - SPINS_BEFORE_PARK);
+                }
+                break;
+            case PARK:
+            case BLOCK:
+            default:
+                park(attempt);
+                break;
+        }
+    }
+
+    /**
+     * Parks for an exponentially growing time, giving up the thread to the rest of the program
+     * @param attempt The number of parks already made, which sets how long this one lasts
+     */
+    private void park(int attempt) throws InterruptedException {
+        long nanos = Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << Math.min(attempt, 10));
+        WaitQueue.park(this, nanos);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Gets the wait strategy with the given name, ignoring case
+     * @param name The name of the strategy, e.g. "spin"
+     * @return The matching strategy
+     */
+    public static WaitStrategy fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a range of element indexes still to be added to the buffer, which Users claim in chunks -
+ * Giving every User its own pool splits the work statically, while sharing one pool between all Users lets
+ * faster Users take on more of the work. The indexes are used as the element values, so every element added in a
+ * run is distinct
+ * @author Alex Harlock
+ */
+public class WorkPool {
+
+    private final AtomicLong next;      // Index of the next element to be claimed
+    private final long end;             // Index one past the last element in the pool
+    private final int chunkSize;        // Maximum number of elements claimed at once
+
+    /**
+     * A pool of elements to be added, numbered from 0
+     * @param numElements The number of elements in the pool
+     * @param chunkSize The maximum number of elements a User claims at once - Smaller chunks balance the work more
+     *                  evenly at the cost of more contention on the pool
+     */
+    public WorkPool(long numElements, int chunkSize) {
+        this(0, numElements, chunkSize);
+    }
+
+    /**
+     * A pool of elements to be added, numbered from a given index
+     * @param firstIndex The index of the first element in the pool
+     * @param numElements The number of elements in the pool
+     * @param chunkSize The maximum number of elements a User claims at once
+     */
+    public WorkPool(long firstIndex, long numElements, int chunkSize) {
+        this.next = new AtomicLong(firstIndex);
+        this.end = firstIndex + numElements;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Claims the next chunk of elements
+     * @return The index of the first element claimed, or -1 if the pool is exhausted - The chunk runs for
+     *         getClaimSize(index) elements
+     */
+    public long claim() {
+        long first = next.get();
+        while (first < end) {
+            if (next.compareAndSet(first, first + getClaimSize(first))) {
+                return first;
+            }
+            first = next.get();
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of elements in the chunk claimed from a given index
+     * @param first The index returned by claim()
+     * @return The number of elements in the chunk
+     */
+    public int getClaimSize(long first) {
+        return (int) Math.min(chunkSize, end - first);
+    }
+
+    /**
+     * Gets the number of elements not yet claimed
+     * @return The number of elements remaining in the pool
+     */
+    public long getRemaining() {
+        return Math.max(0, end - next.get());
+    }
+}
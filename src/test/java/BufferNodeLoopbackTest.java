@@ -0,0 +1,90 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * This class tests a BufferNode with RemoteUsers and RemoteServers connected to it over the loopback interface -
+ * Every element the users send must reach a server, with nothing left on the buffer, whether elements travel one
+ * per request or in batches
+ * @author Alex Harlock
+ */
+public class BufferNodeLoopbackTest {
+
+    private static final int NUM_USERS = 3;         // Remote users adding to the node
+    private static final int NUM_SERVERS = 2;       // Remote servers removing from the node
+    private static final int NUM_ELEMENTS = 20_000; // Elements added across every user
+    private static final int CAPACITY = 16;         // Capacity of the served buffer
+    private static final int WINDOW = 8;            // Requests each connection keeps in flight
+
+    /**
+     * Moves every element with single-element requests
+     */
+    @Test(timeout = 60_000)
+    public void singleElementRequests() throws Exception {
+        runLoopback(1);
+    }
+
+    /**
+     * Moves every element with batched requests
+     */
+    @Test(timeout = 60_000)
+    public void batchedRequests() throws Exception {
+        runLoopback(32);
+    }
+
+    /**
+     * Serves a buffer on a free local port, runs the remote users and servers against it to completion and checks
+     * that the elements added and removed match
+     * @param batchSize Maximum number of elements in each request
+     */
+    private void runLoopback(int batchSize) throws Exception {
+        BufferEngine buffer = new RingBuffer(CAPACITY);
+        BufferNode node = new BufferNode(buffer, 0, NUM_USERS);
+        node.start();
+        int port = node.getPort();
+
+        List<RemoteUser> users = new ArrayList<>();
+        long firstIndex = 0;
+        for (int i = 0; i < NUM_USERS; i++) {
+            int elementsPerUser = NUM_ELEMENTS / NUM_USERS + ((i < NUM_ELEMENTS % NUM_USERS) ? 1 : 0);
+            WorkPool work = new WorkPool(firstIndex, elementsPerUser, Integer.MAX_VALUE);
+            users.add(new RemoteUser(i, work, "127.0.0.1", port, batchSize, WINDOW, WaitStrategy.PARK));
+            firstIndex += elementsPerUser;
+        }
+        List<RemoteServer> servers = new ArrayList<>();
+        for (int i = 0; i < NUM_SERVERS; i++) {
+            servers.add(new RemoteServer(i, "127.0.0.1", port, batchSize, WINDOW, WaitStrategy.PARK, null));
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (RemoteUser user : users) {
+            threads.add(new Thread(user, "RemoteUser " + user.getId()));
+        }
+        for (RemoteServer server : servers) {
+            threads.add(new Thread(server, "RemoteServer " + server.getId()));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        node.awaitDrained();
+        node.stop();
+
+        long added = 0;
+        for (RemoteUser user : users) {
+            added += user.getNumberOfElementsAdded();
+        }
+        long removed = 0;
+        for (RemoteServer server : servers) {
+            removed += server.getNumElementsRemoved();
+        }
+        assertEquals("elements added", NUM_ELEMENTS, added);
+        assertEquals("elements removed", added, removed);
+        assertEquals("elements remaining", 0, buffer.getNumElementsInBuffer());
+    }
+}
@@ -0,0 +1,180 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/**
+ * This class tests MySemaphore - Threads competing through every way of acquiring permits must never hold more than
+ * the semaphore's bound between them and must give every permit back, and in fair mode waiting threads must be
+ * handed permits in the order they queued, without a new arrival taking them first
+ * @author Alex Harlock
+ */
+public class MySemaphoreTest {
+
+    private static final int BOUND = 4;          // Permits the contended semaphores start with
+    private static final int NUM_THREADS = 8;    // Threads competing for the permits
+    private static final int ITERATIONS = 5_000; // Acquire/release rounds per competing thread
+    private static final int NUM_WAITERS = 5;    // Threads queued in the FIFO handoff test
+
+    /**
+     * Contends for the permits of a semaphore that lets new arrivals take them ahead of waiting threads
+     */
+    @Test(timeout = 60_000)
+    public void permitsConservedUnderContention() throws Exception {
+        runContended(new MySemaphore(BOUND, false));
+    }
+
+    /**
+     * Contends for the permits of a semaphore that hands them out in strict FIFO order
+     */
+    @Test(timeout = 60_000)
+    public void permitsConservedUnderContentionWhenFair() throws Exception {
+        runContended(new MySemaphore(BOUND, true));
+    }
+
+    /**
+     * Queues threads one at a time on a fair semaphore with no permits, then releases a permit at a time and checks
+     * that each goes to the longest waiting thread
+     */
+    @Test(timeout = 60_000)
+    public void fairModeHandsOffInArrivalOrder() throws Exception {
+        MySemaphore semaphore = new MySemaphore(0, true);
+        List<Integer> acquired = new CopyOnWriteArrayList<>();
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < NUM_WAITERS; i++) {
+            int id = i;
+            Thread waiter = new Thread(() -> {
+                try {
+                    semaphore.acquire();
+                    acquired.add(id);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }, "Waiter " + i);
+            waiter.start();
+            awaitParked(waiter, semaphore); // Queued before the next one starts, fixing the arrival order
+            waiters.add(waiter);
+        }
+        for (int i = 0; i < NUM_WAITERS; i++) {
+            semaphore.release();
+            while (acquired.size() <= i) {
+                Thread.sleep(1);
+            }
+        }
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < NUM_WAITERS; i++) {
+            expected.add(i);
+        }
+        assertEquals("order permits were handed out", expected, acquired);
+        assertEquals("permits available", 0, semaphore.availablePermits());
+    }
+
+    /**
+     * Checks that a fair semaphore keeps released permits for a queued thread waiting for more than are available,
+     * while an unfair one lets a new arrival take them
+     */
+    @Test(timeout = 60_000)
+    public void fairModeStopsNewArrivalsTakingPermitsFromWaiters() throws Exception {
+        for (boolean fair : new boolean[] {true, false}) {
+            MySemaphore semaphore = new MySemaphore(0, fair);
+            Thread waiter = new Thread(() -> {
+                try {
+                    semaphore.acquire(2);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }, "Waiter");
+            waiter.start();
+            awaitParked(waiter, semaphore);
+            semaphore.release(); // 1 permit available, while the waiter needs 2
+            if (fair) {
+                assertFalse("fair tryAcquire ahead of a waiter", semaphore.tryAcquire());
+                assertEquals("fair tryAcquireUpTo ahead of a waiter", 0, semaphore.tryAcquireUpTo(1));
+                semaphore.release();
+            }
+            else {
+                assertTrue("unfair tryAcquire ahead of a waiter", semaphore.tryAcquire());
+                semaphore.release(2);
+            }
+            waiter.join();
+            assertEquals("permits available", 0, semaphore.availablePermits());
+        }
+    }
+
+    /**
+     * Runs threads that take permits with acquire, the non-blocking and timed tryAcquire and tryAcquireUpTo, counting
+     * the permits held between them, and checks that the count never exceeds the bound and every permit is returned
+     * @param semaphore The semaphore to contend for, starting with BOUND permits
+     */
+    private void runContended(MySemaphore semaphore) throws Exception {
+        AtomicInteger held = new AtomicInteger();        // Permits held across every thread
+        AtomicInteger maxHeld = new AtomicInteger();     // Most permits ever held at once
+        AtomicInteger failures = new AtomicInteger();    // Threads that ended with an exception
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < ITERATIONS; j++) {
+                        int n;
+                        switch (j % 4) {
+                            case 0:
+                                n = 1 + random.nextInt(BOUND);
+                                semaphore.acquire(n);
+                                break;
+                            case 1:
+                                n = semaphore.tryAcquire() ? 1 : 0;
+                                break;
+                            case 2:
+                                n = semaphore.tryAcquire(2, 1, TimeUnit.MILLISECONDS) ? 2 : 0;
+                                break;
+                            default:
+                                n = semaphore.tryAcquireUpTo(BOUND);
+                                break;
+                        }
+                        if (n > 0) {
+                            maxHeld.accumulateAndGet(held.addAndGet(n), Math::max);
+                            held.addAndGet(-n);
+                            semaphore.release(n);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.incrementAndGet();
+                    e.printStackTrace();
+                }
+            }, "Contender " + i));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("failed threads", 0, failures.get());
+        assertTrue("held " + maxHeld.get() + " permits at once", maxHeld.get() <= BOUND);
+        assertEquals("permits available", BOUND, semaphore.availablePermits());
+    }
+
+    /**
+     * Waits until the given thread is parked in the semaphore's queue
+     * @param thread The thread expected to wait
+     * @param semaphore The semaphore it waits on
+     */
+    private void awaitParked(Thread thread, MySemaphore semaphore) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING || LockSupport.getBlocker(thread) != semaphore) {
+            Thread.sleep(1);
+        }
+    }
+}